@@ -2,8 +2,10 @@ package es.musicfly.microserviciodecontenido;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class MicroservicioDeContenidoApplication {
 
     public static void main(String[] args) {
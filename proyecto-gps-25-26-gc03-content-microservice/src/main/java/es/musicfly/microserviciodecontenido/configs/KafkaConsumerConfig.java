@@ -0,0 +1,64 @@
+package es.musicfly.microserviciodecontenido.configs;
+
+import es.musicfly.microserviciodecontenido.kafka.ConversionListener;
+import es.musicfly.microserviciodecontenido.views.DTO.ConversionRequestDTO;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerPausingBackOffHandler;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerContainerPauseService;
+import org.springframework.kafka.listener.ListenerContainerRegistry;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consumidor de las peticiones de conversión (solo arranca en los nodos worker).
+ * Cada hilo toma una petición cada vez y no pide la siguiente hasta terminarla: así un worker
+ * nunca acapara más trabajo del que puede convertir y el resto queda para los demás.
+ */
+@Configuration
+public class KafkaConsumerConfig {
+
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    @Bean
+    public ConsumerFactory<String, ConversionRequestDTO> conversionConsumerFactory() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ConsumerConfig.GROUP_ID_CONFIG, "musicfly-conversion-workers");
+        configProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        configProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 1);
+        // Una conversión larga no debe sacar al worker del grupo
+        configProps.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, 900000);
+        return new DefaultKafkaConsumerFactory<>(configProps, new StringDeserializer(),
+                new JsonDeserializer<>(ConversionRequestDTO.class, false));
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ConversionRequestDTO> conversionListenerFactory(
+            ConsumerFactory<String, ConversionRequestDTO> conversionConsumerFactory,
+            ConversionListener conversionListener, ListenerContainerRegistry registry, TaskScheduler taskScheduler) {
+        ConcurrentKafkaListenerContainerFactory<String, ConversionRequestDTO> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(conversionConsumerFactory);
+        // Worker saturado: en vez de dormir el hilo del consumidor se pausa el contenedor (sigue haciendo poll,
+        // no excede max.poll.interval ni provoca rebalanceo) y se vuelve a entregar la petición tras el Retry-After
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(
+                (record, e) -> conversionListener.abandonar((ConversionRequestDTO) record.value(), e),
+                new FixedBackOff(0, 0),
+                new ContainerPausingBackOffHandler(new ListenerContainerPauseService(registry, taskScheduler)));
+        errorHandler.setBackOffFunction((record, e) -> conversionListener.reintento(e));
+        factory.setCommonErrorHandler(errorHandler);
+        return factory;
+    }
+}
@@ -0,0 +1,21 @@
+package es.musicfly.microserviciodecontenido.configs;
+
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+@Configuration
+public class RestTemplateConfig {
+
+    // Resuelve los nombres de servicio registrados en Eureka (p. ej. http://Estadisticas)
+    @Bean
+    @LoadBalanced
+    public RestTemplate restTemplate() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(2000);
+        factory.setReadTimeout(5000);
+        return new RestTemplate(factory);
+    }
+}
@@ -1,7 +1,12 @@
 package es.musicfly.microserviciodecontenido.controllers;
 
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
 import es.musicfly.microserviciodecontenido.models.DAO.Album;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
 import es.musicfly.microserviciodecontenido.services.AlbumService;
+import es.musicfly.microserviciodecontenido.services.AlbumZipService;
+import es.musicfly.microserviciodecontenido.services.YoutubeConversionService;
 import es.musicfly.microserviciodecontenido.views.DTO.AlbumDTO;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -10,10 +15,16 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/albums")
@@ -21,6 +32,8 @@ import java.util.List;
 public class AlbumController {
 
     private final AlbumService albumService;
+    private final AlbumZipService albumZipService;
+    private final YoutubeConversionService youtubeConversionService;
 
     @GetMapping
     @Operation(
@@ -70,6 +83,49 @@ public class AlbumController {
     }
 
 
+    @GetMapping("/{id}/download")
+    @Operation(
+            summary = "Descargar un álbum completo",
+            description = "Devuelve un ZIP con todas las canciones del álbum, generado mientras se envía. "
+                    + "Las canciones que falten en caché se convierten en paralelo; las que no se puedan convertir "
+                    + "se listan en errores.txt dentro del ZIP."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "ZIP del álbum",
+                    content = @Content(mediaType = "application/zip")),
+            @ApiResponse(responseCode = "404", description = "El álbum no fue encontrado")
+    })
+    public ResponseEntity<StreamingResponseBody> downloadAlbum(
+            @Parameter(description = "ID del álbum a descargar", example = "5")
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        Optional<Album> album = albumService.getAlbumById(id);
+        if (album.isEmpty()) return ResponseEntity.notFound().build();
+
+        // La colección es perezosa: se copia aquí, mientras la sesión de la petición sigue abierta
+        List<Song> canciones = album.get().getCanciones() == null ? new ArrayList<>() : new ArrayList<>(album.get().getCanciones());
+        // Sin columna de orden en la relación: orden de alta de las canciones
+        canciones.sort(Comparator.comparing(Song::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        // Como en /songs/{id}/download: MP3 salvo que el cliente pida explícitamente audio/webm o audio/mp4
+        AudioProfile profile = youtubeConversionService.negotiate(AudioProfile.FULL, accept, AudioFormat.MP3);
+
+        StreamingResponseBody body = out -> {
+            try {
+                albumZipService.write(canciones, profile, out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        String nombre = album.get().getNombre() == null ? "album-" + id : album.get().getNombre().replaceAll("[\\\\/:*?\"<>|]", "_");
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nombre + ".zip\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
     @PostMapping
     @Operation(
             summary = "Crear un nuevo álbum",
@@ -0,0 +1,54 @@
+package es.musicfly.microserviciodecontenido.controllers;
+
+import es.musicfly.microserviciodecontenido.models.DAO.Genre;
+import es.musicfly.microserviciodecontenido.services.RadioService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Locale;
+
+@RestController
+@RequestMapping("/radio")
+@RequiredArgsConstructor
+public class RadioController {
+
+    private final RadioService radioService;
+
+    @GetMapping("/{genre}")
+    @Operation(
+            summary = "Escuchar la radio de un género",
+            description = "Stream MP3 sin fin con las canciones del género que ya están en caché. Todos los oyentes "
+                    + "de una emisora escuchan lo mismo a la vez; al conectarse se empieza unos segundos por detrás del directo."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Stream de audio de la emisora",
+                    content = @Content(mediaType = "audio/mpeg")),
+            @ApiResponse(responseCode = "400", description = "Género desconocido"),
+            @ApiResponse(responseCode = "404", description = "No hay canciones del género disponibles")
+    })
+    public ResponseEntity<?> listen(
+            @Parameter(description = "Género de la emisora", example = "rock")
+            @PathVariable String genre,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        Genre genero;
+        try {
+            genero = Genre.valueOf(genre.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (!radioService.listen(genero, request, response)) return ResponseEntity.notFound().build();
+        return null;
+    }
+}
@@ -1,49 +1,84 @@
 package es.musicfly.microserviciodecontenido.controllers;
 
+import es.musicfly.microserviciodecontenido.exceptions.InvalidUploadException;
 import es.musicfly.microserviciodecontenido.kafka.EstadisticasProducer;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
 import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.models.DAO.SongFeatures;
+import es.musicfly.microserviciodecontenido.services.AudioFileSender;
+import es.musicfly.microserviciodecontenido.services.PacedStreamer;
+import es.musicfly.microserviciodecontenido.services.RenditionJobService;
+import es.musicfly.microserviciodecontenido.services.SeekIndexService;
+import es.musicfly.microserviciodecontenido.services.SongFeaturesService;
 import es.musicfly.microserviciodecontenido.services.SongService;
+import es.musicfly.microserviciodecontenido.services.SongUploadService;
+import es.musicfly.microserviciodecontenido.services.WaveformService;
 import es.musicfly.microserviciodecontenido.services.YoutubeConversionService;
+import es.musicfly.microserviciodecontenido.views.DTO.ErrorResponseDTO;
 import es.musicfly.microserviciodecontenido.views.DTO.FavoritosDTO;
 import es.musicfly.microserviciodecontenido.views.DTO.RatingDTO;
+import es.musicfly.microserviciodecontenido.views.DTO.RenditionJobDTO;
 import es.musicfly.microserviciodecontenido.views.DTO.SongDTO;
+import es.musicfly.microserviciodecontenido.views.DTO.UploadDTO;
+import es.musicfly.microserviciodecontenido.views.DTO.UploadRequestDTO;
 import es.musicfly.microserviciodecontenido.views.DTO.VisualizacionDTO;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.Parameter;
 
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/songs")
 @RequiredArgsConstructor
 public class SongController {
 
+    private static final Pattern HLS_VARIANTE = Pattern.compile("v\\d{1,2}");
+    private static final Pattern HLS_FICHERO = Pattern.compile("(index\\.m3u8|seg_\\d{1,5}\\.ts)");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(?:\\d+|\\*)");
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+
     private final SongService songService;
     private final YoutubeConversionService youtubeConversionService;
+    private final AudioFileSender audioFileSender;
+    private final RenditionJobService renditionJobService;
     private final EstadisticasProducer estadisticasProducer;
+    private final SongUploadService songUploadService;
+    private final SeekIndexService seekIndexService;
+    private final PacedStreamer pacedStreamer;
+    private final WaveformService waveformService;
+    private final SongFeaturesService songFeaturesService;
 
     @GetMapping
     @Operation(
@@ -256,22 +291,41 @@ public class SongController {
         return ResponseEntity.ok().build();
     }
     // Descargas de canciones
+    // Con live=true el audio se envía mientras yt-dlp/ffmpeg siguen convirtiendo (si no está ya en caché).
+    // Las canciones con audio subido no se convierten, así que ignoran live
 
     @GetMapping("/{id}/download")
-    public ResponseEntity<byte[]> downloadSong(@PathVariable Long id) throws IOException, InterruptedException {
+    public ResponseEntity<?> downloadSong(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "false") boolean live,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException, InterruptedException {
         Song song = songService.getSongById(id)
                 .orElseThrow(() -> new RuntimeException("Song not found"));
 
-        byte[] mp3Data = youtubeConversionService.convertToMp3(song,false);
+        if (live && song.getFuenteLocal() == null) {
+            String disposition = "attachment; filename=\"" + song.getNombre() + ".mp3\"";
+            return liveResponse(song, AudioProfile.FULL, MediaType.APPLICATION_OCTET_STREAM, disposition);
+        }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + song.getNombre() + ".mp3\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(mp3Data);
+        // Las descargas son MP3 salvo que el cliente pida explícitamente audio/webm o audio/mp4
+        AudioProfile profile = youtubeConversionService.negotiate(AudioProfile.FULL, request.getHeader(HttpHeaders.ACCEPT), AudioFormat.MP3);
+        Path audioFile = youtubeConversionService.getRendition(song, profile, ConversionPriority.DOWNLOAD);
+
+        String disposition = "attachment; filename=\"" + song.getNombre() + "." + extension(audioFile) + "\"";
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        audioFileSender.send(audioFile, MediaType.APPLICATION_OCTET_STREAM_VALUE, disposition, false, request, response);
+        return null;
     }
 
     @GetMapping("/{id}/preview")
-    public ResponseEntity<byte[]> previewSong(@PathVariable Long id, HttpServletRequest allRequest) throws IOException, InterruptedException {
+    public ResponseEntity<?> previewSong(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "false") boolean live,
+            HttpServletRequest allRequest,
+            HttpServletResponse allResponse
+    ) throws IOException, InterruptedException {
         Song song = songService.getSongById(id)
                 .orElseThrow(() -> new RuntimeException("Song not found"));
 
@@ -287,7 +341,19 @@ public class SongController {
         }else{
             System.err.println("[NOTICE] A anonymous user used option 'preview' for listen "+song.getNombre());
         }
-        byte[] mp3Data = youtubeConversionService.convertToMp3(song,false);
+
+        ResponseEntity<?> response = null;
+        if (live && song.getFuenteLocal() == null) {
+            String disposition = "attachment; filename=\"" + song.getNombre() + ".mp3\"";
+            response = liveResponse(song, AudioProfile.PREVIEW, MediaType.APPLICATION_OCTET_STREAM, disposition);
+        } else {
+            AudioProfile profile = youtubeConversionService.negotiate(AudioProfile.PREVIEW, allRequest.getHeader(HttpHeaders.ACCEPT), AudioFormat.M4A);
+            Path audioFile = youtubeConversionService.getRendition(song, profile, ConversionPriority.INTERACTIVE);
+
+            String disposition = "attachment; filename=\"" + song.getNombre() + "." + extension(audioFile) + "\"";
+            allResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            audioFileSender.send(audioFile, MediaType.APPLICATION_OCTET_STREAM_VALUE, disposition, false, allRequest, allResponse);
+        }
 
         estadisticasProducer.enviarVisualizacion(VisualizacionDTO.builder()
                 .accion("CREATED")
@@ -297,22 +363,424 @@ public class SongController {
                 .idVisualizacion(idUsuario+"-"+song.getId()) // Combinamos claves
                 .build());
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + song.getNombre() + ".mp3\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(mp3Data);
+        return response;
     }
 
     @GetMapping("/{id}/stream")
-    public ResponseEntity<Resource> streamSong(@PathVariable Long id) throws IOException, InterruptedException {
+    public ResponseEntity<?> streamSong(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "false") boolean live,
+            @Parameter(description = "Instante desde el que reproducir: segundos o m:ss / h:mm:ss", example = "2:13")
+            @RequestParam(required = false) String t,
+            @Parameter(description = "false para recibir el fichero a máxima velocidad en lugar de al ritmo de reproducción")
+            @RequestParam(defaultValue = "true") boolean paced,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException, InterruptedException {
         Song song = songService.getSongById(id).orElseThrow();
-        File mp3File = youtubeConversionService.convertToMp3File(song, false);
+        MediaType audioMpeg = MediaType.parseMediaType("audio/mpeg");
+
+        if (live && song.getFuenteLocal() == null) return liveResponse(song, AudioProfile.FULL, audioMpeg, "inline; filename=\"" + song.getNombre() + ".mp3\"");
+
+        // Sin preferencia del cliente se sirve el AAC original (m4a), que reproduce cualquier navegador sin recodificar
+        AudioProfile profile = youtubeConversionService.negotiate(AudioProfile.FULL, request.getHeader(HttpHeaders.ACCEPT), AudioFormat.M4A);
+        long inicioMs = t == null ? 0 : instante(t);
+        if (inicioMs < 0) return ResponseEntity.badRequest().build();
+        // Para empezar en un instante sin decodificar se usa MP3: cualquier trama sirve de punto de entrada
+        Path audioFile = t != null
+                ? youtubeConversionService.getSeekableRendition(song, profile, ConversionPriority.INTERACTIVE)
+                : youtubeConversionService.getRendition(song, profile, ConversionPriority.INTERACTIVE);
+        String contentType = AudioFormat.fromFichero(audioFile.getFileName().toString()).getMimeType();
+        long desde = 0;
+        if (inicioMs > 0) {
+            OptionalLong offset = seekIndexService.offset(audioFile, inicioMs);
+            // Sin índice no se puede empezar en el instante pedido: no se reproduce desde el principio como si nada
+            if (offset.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ErrorResponseDTO.builder()
+                        .error("seek_unavailable")
+                        .message("Unprocessable Entity: no se puede empezar en " + t + "; se puede pedir la canción sin t")
+                        .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value())
+                        .timestamp(LocalDateTime.now().toString())
+                        .build());
+            }
+            desde = offset.getAsLong();
+        }
+        // Ráfaga inicial y después un múltiplo del bitrate: no se envía de golpe lo que quizá no se escuche
+        long bitrate = paced ? pacedStreamer.bitrate(audioFile, song.getId()) : 0;
+
+        // Range/If-Range: al buscar en el reproductor solo viajan los bytes pedidos
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        audioFileSender.send(audioFile, desde, bitrate, contentType, "inline; filename=\"" + audioFile.getFileName() + "\"", false, request, response);
+        return null;
+    }
+
+    @GetMapping("/{id}/waveform")
+    @Operation(
+            summary = "Forma de onda de una canción",
+            description = "Resumen binario de resolución fija para dibujar la forma de onda sin descargar el audio. "
+                    + "Formato (big-endian): \"MFWF\", versión (int), duración en ms (int), número de puntos N (int), "
+                    + "N bytes de picos y N bytes de RMS en escala 0-255."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Forma de onda",
+                    content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)),
+            @ApiResponse(responseCode = "302", description = "Redirección a la URL con la versión actual del audio"),
+            @ApiResponse(responseCode = "404", description = "Canción no encontrada"),
+            @ApiResponse(responseCode = "503", description = "Cola de conversiones llena")
+    })
+    public ResponseEntity<?> waveform(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "Versión del audio; sin ella se redirige a la actual")
+            @RequestParam(required = false) String v,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException, InterruptedException {
+        Optional<Song> song = songService.getSongById(id);
+        if (song.isEmpty()) return ResponseEntity.notFound().build();
+
+        // Solo la URL ligada al origen del audio es inmutable: si la canción cambia de vídeo o se vuelve a
+        // subir, cambia la versión y los clientes que pidan la de siempre reciben la nueva
+        String version = youtubeConversionService.cacheKey(song.get(), AudioProfile.FULL) + "-" + WaveformService.VERSION;
+        if (!version.equals(v)) {
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(URI.create("waveform?v=" + version))
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+
+        // Cualquier versión completa ya generada sirve; si no hay ninguna se convierte la que pediría /stream
+        Path audio = youtubeConversionService.findFullRendition(song.get()).orElse(null);
+        if (audio == null) {
+            AudioProfile profile = youtubeConversionService.negotiate(AudioProfile.FULL, null, AudioFormat.M4A);
+            audio = youtubeConversionService.getRendition(song.get(), profile, ConversionPriority.INTERACTIVE);
+        }
+
+        audioFileSender.send(waveformService.get(audio), MediaType.APPLICATION_OCTET_STREAM_VALUE, null, true, request, response);
+        return null;
+    }
+
+    @GetMapping("/{id}/features")
+    @Operation(
+            summary = "Características de audio de una canción",
+            description = "Duración real, sonoridad, tempo y energía calculados por el análisis nocturno del catálogo."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Características de la canción",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = SongFeatures.class))),
+            @ApiResponse(responseCode = "404", description = "Canción no encontrada o aún sin analizar")
+    })
+    public ResponseEntity<SongFeatures> getFeatures(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id
+    ) {
+        return songFeaturesService.getFeatures(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // HLS: playlist maestra con varios bitrates y segmentos cortos que se descargan por separado
+
+    @GetMapping("/{id}/hls/master.m3u8")
+    @Operation(
+            summary = "Playlist HLS de una canción",
+            description = "Devuelve la playlist maestra con una variante por bitrate, de menor a mayor. "
+                    + "Las variantes y segmentos cuelgan de una ruta inmutable ligada a la conversión."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Playlist maestra"),
+            @ApiResponse(responseCode = "404", description = "Canción no encontrada"),
+            @ApiResponse(responseCode = "503", description = "Cola de conversiones llena")
+    })
+    public ResponseEntity<String> hlsMaster(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id
+    ) throws IOException, InterruptedException {
+        Optional<Song> song = songService.getSongById(id);
+        if (song.isEmpty()) return ResponseEntity.notFound().build();
+
+        Path directorio = youtubeConversionService.getRendition(song.get(), AudioProfile.HLS, ConversionPriority.INTERACTIVE);
+        String clave = youtubeConversionService.cacheKey(song.get(), AudioProfile.HLS);
+
+        // Las URIs de las variantes pasan a ser relativas a la clave de la conversión (contenido inmutable)
+        StringBuilder master = new StringBuilder();
+        for (String linea : Files.readAllLines(directorio.resolve(YoutubeConversionService.HLS_MASTER))) {
+            if (!linea.isBlank() && !linea.startsWith("#")) linea = clave + "/" + linea;
+            master.append(linea).append('\n');
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(AudioFormat.HLS.getMimeType()))
+                .cacheControl(CacheControl.noCache())
+                .body(master.toString());
+    }
+
+    @GetMapping("/{id}/hls/{clave}/{variante}/{fichero}")
+    @Operation(
+            summary = "Playlist de variante o segmento HLS",
+            description = "Sirve la playlist de un bitrate o uno de sus segmentos. Son inmutables y se pueden cachear indefinidamente."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Playlist o segmento"),
+            @ApiResponse(responseCode = "404", description = "Canción, conversión o fichero no encontrado")
+    })
+    public ResponseEntity<?> hlsFile(
+            @PathVariable Long id,
+            @PathVariable String clave,
+            @PathVariable String variante,
+            @PathVariable String fichero,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException, InterruptedException {
+        if (!HLS_VARIANTE.matcher(variante).matches() || !HLS_FICHERO.matcher(fichero).matches()) {
+            return ResponseEntity.notFound().build();
+        }
+        Optional<Song> song = songService.getSongById(id);
+        // Si el origen de la canción ha cambiado, la clave vieja ya no es válida
+        if (song.isEmpty() || !clave.equals(youtubeConversionService.cacheKey(song.get(), AudioProfile.HLS))) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Path directorio = youtubeConversionService.getRendition(song.get(), AudioProfile.HLS, ConversionPriority.INTERACTIVE);
+        Path path = directorio.resolve(variante).resolve(fichero);
+        if (!Files.isRegularFile(path)) return ResponseEntity.notFound().build();
+
+        String contentType = fichero.endsWith(".m3u8") ? AudioFormat.HLS.getMimeType() : "video/mp2t";
+        audioFileSender.send(path, contentType, null, true, request, response);
+        return null;
+    }
+
+    // Trabajos asíncronos de conversión (precarga de las siguientes canciones)
+
+    @PostMapping("/{id}/renditions")
+    @Operation(
+            summary = "Encolar la conversión de una canción",
+            description = "Crea un trabajo asíncrono que deja la canción convertida en caché y devuelve su ID para consultar el estado."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "202", description = "Trabajo encolado",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RenditionJobDTO.class))),
+            @ApiResponse(responseCode = "400", description = "Perfil desconocido"),
+            @ApiResponse(responseCode = "404", description = "Canción no encontrada"),
+            @ApiResponse(responseCode = "503", description = "Cola de conversiones llena")
+    })
+    public ResponseEntity<RenditionJobDTO> createRendition(
+            @Parameter(description = "ID de la canción a convertir", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "Perfil de salida: full o preview", example = "full")
+            @RequestParam(defaultValue = "full") String perfil
+    ) {
+        Optional<Song> song = songService.getSongById(id);
+        if (song.isEmpty()) return ResponseEntity.notFound().build();
+
+        AudioProfile profile;
+        try {
+            // Se prepara el formato que /stream y /preview sirven por defecto
+            profile = youtubeConversionService.negotiate(AudioProfile.fromNombre(perfil), null, AudioFormat.M4A);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        RenditionJobDTO job = renditionJobService.enqueue(song.get(), profile);
+        return ResponseEntity.accepted()
+                .location(URI.create("/songs/" + id + "/renditions/" + job.getIdTrabajo()))
+                .body(job);
+    }
+
+    @GetMapping("/{id}/renditions/{jobId}")
+    @Operation(
+            summary = "Consultar un trabajo de conversión",
+            description = "Devuelve el estado, el progreso y, al terminar, la URL desde la que reproducir la canción."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Estado del trabajo",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RenditionJobDTO.class))),
+            @ApiResponse(responseCode = "404", description = "Trabajo no encontrado o fuera del historial")
+    })
+    public ResponseEntity<RenditionJobDTO> getRendition(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "ID del trabajo")
+            @PathVariable String jobId
+    ) {
+        return renditionJobService.getJob(id, jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/{id}/renditions/{jobId}")
+    @Operation(
+            summary = "Cancelar un trabajo de conversión",
+            description = "Abandona el trabajo; la conversión solo se detiene si nadie más la está esperando."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "204", description = "Trabajo cancelado"),
+            @ApiResponse(responseCode = "404", description = "Trabajo no encontrado")
+    })
+    public ResponseEntity<Void> cancelRendition(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "ID del trabajo")
+            @PathVariable String jobId
+    ) {
+        return renditionJobService.cancel(id, jobId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    // Subida reanudable del audio original: se abre la subida y se envían trozos en orden con PUT
+
+    @PostMapping("/{id}/upload")
+    @Operation(
+            summary = "Iniciar la subida del audio de una canción",
+            description = "Abre una subida reanudable. El fichero se envía después por trozos con PUT y, al completarse "
+                    + "y verificarse su SHA-256, pasa a ser el audio de la canción, que se sirve sin conversión."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "201", description = "Subida creada",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UploadDTO.class))),
+            @ApiResponse(responseCode = "400", description = "Formato, tamaño o suma no válidos"),
+            @ApiResponse(responseCode = "404", description = "Canción no encontrada"),
+            @ApiResponse(responseCode = "413", description = "El fichero supera el tamaño máximo")
+    })
+    public ResponseEntity<UploadDTO> startUpload(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @RequestBody UploadRequestDTO peticion
+    ) throws IOException {
+        Optional<Song> song = songService.getSongById(id);
+        if (song.isEmpty()) return ResponseEntity.notFound().build();
+
+        UploadDTO subida = songUploadService.start(song.get(), peticion);
+        return ResponseEntity.created(URI.create("/songs/" + id + "/upload/" + subida.getIdSubida()))
+                .header(UPLOAD_OFFSET, "0")
+                .body(subida);
+    }
 
-        InputStreamResource resource = new InputStreamResource(new FileInputStream(mp3File));
+    @PutMapping("/{id}/upload/{uploadId}")
+    @Operation(
+            summary = "Enviar un trozo de la subida",
+            description = "El cuerpo son los bytes del trozo. Su posición se indica con Content-Range (bytes inicio-fin/total) "
+                    + "o con la cabecera Upload-Offset y debe coincidir con los bytes ya recibidos."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Trozo guardado; completada=true si era el último",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UploadDTO.class))),
+            @ApiResponse(responseCode = "404", description = "Subida no encontrada o caducada"),
+            @ApiResponse(responseCode = "409", description = "El trozo no continúa donde terminó el anterior"),
+            @ApiResponse(responseCode = "413", description = "Se han enviado más bytes de los anunciados"),
+            @ApiResponse(responseCode = "422", description = "La suma SHA-256 no coincide o el fichero no es audio")
+    })
+    public ResponseEntity<UploadDTO> uploadChunk(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "ID de la subida")
+            @PathVariable String uploadId,
+            @RequestHeader(value = HttpHeaders.CONTENT_RANGE, required = false) String contentRange,
+            @RequestHeader(value = UPLOAD_OFFSET, required = false) Long uploadOffset,
+            HttpServletRequest request
+    ) throws IOException {
+        long inicio;
+        if (uploadOffset != null) {
+            inicio = uploadOffset;
+        } else {
+            Matcher rango = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.trim());
+            if (rango == null || !rango.matches()) {
+                throw new InvalidUploadException("Falta Content-Range (bytes inicio-fin/total) o Upload-Offset", HttpStatus.BAD_REQUEST);
+            }
+            inicio = Long.parseLong(rango.group(1));
+        }
+
+        // El cuerpo se copia a disco según llega, sin pasar por un @RequestBody en memoria
+        return songUploadService.appendChunk(id, uploadId, inicio, request.getInputStream())
+                .map(subida -> ResponseEntity.ok().header(UPLOAD_OFFSET, String.valueOf(subida.getRecibidos())).body(subida))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{id}/upload/{uploadId}")
+    @Operation(
+            summary = "Consultar una subida",
+            description = "Devuelve los bytes recibidos (también en la cabecera Upload-Offset) para reanudar desde ahí."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Estado de la subida",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UploadDTO.class))),
+            @ApiResponse(responseCode = "404", description = "Subida no encontrada o caducada")
+    })
+    public ResponseEntity<UploadDTO> getUpload(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "ID de la subida")
+            @PathVariable String uploadId
+    ) throws IOException {
+        return songUploadService.getStatus(id, uploadId)
+                .map(subida -> ResponseEntity.ok().header(UPLOAD_OFFSET, String.valueOf(subida.getRecibidos())).body(subida))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/{id}/upload/{uploadId}")
+    @Operation(
+            summary = "Cancelar una subida",
+            description = "Borra lo recibido hasta ahora. El audio actual de la canción no cambia."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "204", description = "Subida cancelada"),
+            @ApiResponse(responseCode = "404", description = "Subida no encontrada")
+    })
+    public ResponseEntity<Void> cancelUpload(
+            @Parameter(description = "ID de la canción", example = "10")
+            @PathVariable Long id,
+            @Parameter(description = "ID de la subida")
+            @PathVariable String uploadId
+    ) throws IOException {
+        return songUploadService.cancel(id, uploadId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Milisegundos de un instante "133", "133.5", "2:13" o "1:02:13"; -1 si no es válido.
+     */
+    private static long instante(String valor) {
+        String[] partes = valor.trim().split(":");
+        if (partes.length > 3) return -1;
+        try {
+            double segundos = 0;
+            for (int i = 0; i < partes.length; i++) {
+                double parte = Double.parseDouble(partes[i]);
+                if (parte < 0 || (i > 0 && parte >= 60) || Double.isNaN(parte) || Double.isInfinite(parte)) return -1;
+                segundos = segundos * 60 + parte;
+            }
+            return (long) (segundos * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String extension(Path audioFile) {
+        return AudioFormat.fromFichero(audioFile.getFileName().toString()).getExtension();
+    }
+
+    private ResponseEntity<StreamingResponseBody> liveResponse(Song song, AudioProfile profile, MediaType mediaType, String disposition) {
+        // Si no hay hueco respondemos 503 ahora, antes de enviar las cabeceras
+        youtubeConversionService.checkLiveCapacity();
+
+        StreamingResponseBody body = out -> {
+            try {
+                youtubeConversionService.streamLive(song, profile, out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
 
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("audio/mpeg"))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + mp3File.getName() + "\"")
-                .body(resource);
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, disposition)
+                .body(body);
     }
-}
+}
\ No newline at end of file
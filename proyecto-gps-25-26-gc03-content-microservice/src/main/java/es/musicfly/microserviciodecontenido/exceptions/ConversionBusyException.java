@@ -0,0 +1,23 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+/**
+ * Excepción que se lanza cuando el planificador de conversiones está saturado.
+ * Se traduce en un 503 con cabecera Retry-After en lugar de dejar hilos esperando.
+ */
+public class ConversionBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * @param message           El mensaje que describe el motivo de la excepción.
+     * @param retryAfterSeconds Segundos estimados tras los que merece la pena reintentar.
+     */
+    public ConversionBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
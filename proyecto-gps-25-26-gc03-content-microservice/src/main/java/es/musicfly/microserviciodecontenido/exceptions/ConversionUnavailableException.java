@@ -0,0 +1,23 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+/**
+ * Excepción que se lanza cuando las herramientas de conversión (Python / yt-dlp) todavía no están listas
+ * o no se pudieron preparar. Se traduce en un 503 con cabecera Retry-After.
+ */
+public class ConversionUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * @param message           El mensaje que describe el motivo de la excepción.
+     * @param retryAfterSeconds Segundos estimados tras los que merece la pena reintentar.
+     */
+    public ConversionUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,121 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+import es.musicfly.microserviciodecontenido.views.DTO.ErrorResponseDTO;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import java.time.LocalDateTime;
+
+/**
+ * Clase encargada de manejar globalmente las excepciones lanzadas por el microservicio de contenido.
+ */
+@ControllerAdvice
+public class GlobalExceptionHandler {
+
+    /**
+     * Maneja la excepción ConversionBusyException. Ocurre cuando la cola de conversiones está llena.
+     * Se devuelve una respuesta con el código HTTP 503 (Service Unavailable) y la cabecera Retry-After.
+     *
+     * @param ex La excepción de tipo ConversionBusyException.
+     * @return Una respuesta con el mensaje de error y el código de estado 503.
+     */
+    @ExceptionHandler(ConversionBusyException.class)
+    public ResponseEntity<ErrorResponseDTO> handleConversionBusy(ConversionBusyException ex) {
+        ErrorResponseDTO error = ErrorResponseDTO.builder()
+                .error("conversion_busy")
+                .message("Service Unavailable: " + ex.getMessage())
+                .statusCode(HttpStatus.SERVICE_UNAVAILABLE.value())
+                .timestamp(LocalDateTime.now().toString())
+                .build();
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(error);
+    }
+
+    /**
+     * Maneja la excepción ConversionUnavailableException. Ocurre mientras yt-dlp se está preparando
+     * tras el arranque o si no se pudo preparar.
+     * Se devuelve una respuesta con el código HTTP 503 (Service Unavailable) y la cabecera Retry-After.
+     *
+     * @param ex La excepción de tipo ConversionUnavailableException.
+     * @return Una respuesta con el mensaje de error y el código de estado 503.
+     */
+    @ExceptionHandler(ConversionUnavailableException.class)
+    public ResponseEntity<ErrorResponseDTO> handleConversionUnavailable(ConversionUnavailableException ex) {
+        ErrorResponseDTO error = ErrorResponseDTO.builder()
+                .error("conversion_unavailable")
+                .message("Service Unavailable: " + ex.getMessage())
+                .statusCode(HttpStatus.SERVICE_UNAVAILABLE.value())
+                .timestamp(LocalDateTime.now().toString())
+                .build();
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(error);
+    }
+
+    /**
+     * Maneja la excepción SourceUnavailableException. Ocurre cuando el vídeo de origen de la canción
+     * ha sido eliminado o bloqueado; el fallo queda en la caché negativa y no se reintenta la conversión.
+     * Se devuelve una respuesta con el código HTTP 410 (Gone).
+     *
+     * @param ex La excepción de tipo SourceUnavailableException.
+     * @return Una respuesta con el mensaje de error y el código de estado 410.
+     */
+    @ExceptionHandler(SourceUnavailableException.class)
+    public ResponseEntity<ErrorResponseDTO> handleSourceUnavailable(SourceUnavailableException ex) {
+        ErrorResponseDTO error = ErrorResponseDTO.builder()
+                .error("source_unavailable")
+                .message("Gone: " + ex.getMessage())
+                .statusCode(HttpStatus.GONE.value())
+                .timestamp(LocalDateTime.now().toString())
+                .build();
+
+        return ResponseEntity.status(HttpStatus.GONE).body(error);
+    }
+
+    /**
+     * Maneja la excepción UploadOffsetException. Ocurre cuando un trozo de una subida no continúa
+     * donde terminó el anterior.
+     * Se devuelve una respuesta con el código HTTP 409 (Conflict) y la cabecera Upload-Offset.
+     *
+     * @param ex La excepción de tipo UploadOffsetException.
+     * @return Una respuesta con el mensaje de error y el código de estado 409.
+     */
+    @ExceptionHandler(UploadOffsetException.class)
+    public ResponseEntity<ErrorResponseDTO> handleUploadOffset(UploadOffsetException ex) {
+        ErrorResponseDTO error = ErrorResponseDTO.builder()
+                .error("upload_offset_mismatch")
+                .message("Conflict: " + ex.getMessage())
+                .statusCode(HttpStatus.CONFLICT.value())
+                .timestamp(LocalDateTime.now().toString())
+                .build();
+
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header("Upload-Offset", String.valueOf(ex.getOffset()))
+                .body(error);
+    }
+
+    /**
+     * Maneja la excepción InvalidUploadException. Ocurre cuando los metadatos o el contenido de una subida
+     * no son válidos. El código HTTP lo decide la propia excepción (400, 413 o 422).
+     *
+     * @param ex La excepción de tipo InvalidUploadException.
+     * @return Una respuesta con el mensaje de error y el código de estado correspondiente.
+     */
+    @ExceptionHandler(InvalidUploadException.class)
+    public ResponseEntity<ErrorResponseDTO> handleInvalidUpload(InvalidUploadException ex) {
+        ErrorResponseDTO error = ErrorResponseDTO.builder()
+                .error("invalid_upload")
+                .message(ex.getStatus().getReasonPhrase() + ": " + ex.getMessage())
+                .statusCode(ex.getStatus().value())
+                .timestamp(LocalDateTime.now().toString())
+                .build();
+
+        return ResponseEntity.status(ex.getStatus()).body(error);
+    }
+}
@@ -0,0 +1,25 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Excepción que se lanza cuando una subida de audio no es válida: metadatos incorrectos (400),
+ * fichero demasiado grande (413) o contenido que no coincide con la suma SHA-256 o no es audio (422).
+ */
+public class InvalidUploadException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    /**
+     * @param message El mensaje que describe el motivo de la excepción.
+     * @param status  Código HTTP con el que se responde.
+     */
+    public InvalidUploadException(String message, HttpStatus status) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
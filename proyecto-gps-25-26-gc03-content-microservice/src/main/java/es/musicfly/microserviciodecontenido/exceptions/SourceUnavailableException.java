@@ -0,0 +1,15 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+/**
+ * Excepción que se lanza cuando el vídeo de origen de una canción ya no se puede descargar
+ * (eliminado, privado, bloqueado en la región...). Se traduce en un 410 sin lanzar otra conversión.
+ */
+public class SourceUnavailableException extends RuntimeException {
+
+    /**
+     * @param message El mensaje que describe el motivo de la excepción.
+     */
+    public SourceUnavailableException(String message) {
+        super(message);
+    }
+}
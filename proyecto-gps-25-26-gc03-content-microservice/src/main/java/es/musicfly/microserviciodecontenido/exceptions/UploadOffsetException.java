@@ -0,0 +1,24 @@
+package es.musicfly.microserviciodecontenido.exceptions;
+
+/**
+ * Excepción que se lanza cuando un trozo de una subida no empieza donde terminó el anterior
+ * (p. ej. un reintento tras un corte). Se traduce en un 409 con la cabecera Upload-Offset
+ * para que el cliente reanude desde el byte correcto.
+ */
+public class UploadOffsetException extends RuntimeException {
+
+    private final long offset;
+
+    /**
+     * @param message El mensaje que describe el motivo de la excepción.
+     * @param offset  Bytes ya recibidos, desde donde debe continuar el cliente.
+     */
+    public UploadOffsetException(String message, long offset) {
+        super(message);
+        this.offset = offset;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
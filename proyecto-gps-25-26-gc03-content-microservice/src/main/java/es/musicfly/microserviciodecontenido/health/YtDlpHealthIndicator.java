@@ -0,0 +1,28 @@
+package es.musicfly.microserviciodecontenido.health;
+
+import es.musicfly.microserviciodecontenido.services.YtDlpBootstrap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Estado de las herramientas de conversión, publicado en su propio grupo (/actuator/health/conversion).
+ * No forma parte de readiness: mientras se preparan el servicio no puede convertir, pero el catálogo,
+ * las subidas y el audio ya en caché siguen respondiendo, y las conversiones devuelven 503.
+ */
+@Component("ytDlp")
+@RequiredArgsConstructor
+public class YtDlpHealthIndicator implements HealthIndicator {
+
+    private final YtDlpBootstrap ytDlpBootstrap;
+
+    @Override
+    public Health health() {
+        return switch (ytDlpBootstrap.getEstado()) {
+            case READY -> Health.up().build();
+            case STARTING -> Health.outOfService().withDetail("estado", "preparando yt-dlp").build();
+            case FAILED -> Health.down().withDetail("error", String.valueOf(ytDlpBootstrap.getError())).build();
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package es.musicfly.microserviciodecontenido.kafka;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.services.AudioCacheService;
+import es.musicfly.microserviciodecontenido.services.YoutubeConversionService;
+import es.musicfly.microserviciodecontenido.views.DTO.ConversionRequestDTO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.io.IOException;
+
+/**
+ * Nodo worker: consume conversiones.v1, convierte con yt-dlp/ffmpeg y deja el resultado (o la marca de fallo)
+ * en el almacén compartido de renditions. Solo arranca con musicfly.conversion.worker=true.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConversionListener {
+
+    // Entregas rechazadas por saturación antes de dar la petición por fallida
+    private static final int MAX_ESPERAS = 10;
+
+    private final YoutubeConversionService youtubeConversionService;
+    private final AudioCacheService audioCacheService;
+
+    // ------------------- CONVERSIONES -------------------
+    @KafkaListener(id = "conversion-worker", topics = ConversionProducer.TOPIC, groupId = "musicfly-conversion-workers",
+            containerFactory = "conversionListenerFactory",
+            autoStartup = "${musicfly.conversion.worker:false}",
+            concurrency = "${musicfly.conversion.worker-concurrency:2}")
+    public void gestionarConversion(ConversionRequestDTO c) throws InterruptedException {
+        Song song = Song.builder().id(c.getIdCancion()).url(c.getUrl()).build();
+        AudioFormat formato = AudioFormat.valueOf(c.getFormato());
+        AudioProfile profile = formato == AudioFormat.HLS ? AudioProfile.HLS
+                : AudioProfile.fromNombre(c.getPerfil()).conFormato(formato);
+        ConversionPriority prioridad = ConversionPriority.valueOf(c.getPrioridad());
+        String clave = youtubeConversionService.cacheKey(song, profile);
+
+        try {
+            youtubeConversionService.convertLocally(song, profile, prioridad);
+            System.out.println("[WORKER] Conversión terminada: " + clave);
+        } catch (ConversionBusyException | ConversionUnavailableException e) {
+            // Se relanza: el contenedor se pausa Retry-After segundos y la vuelve a entregar (ver KafkaConsumerConfig)
+            System.out.println("[WORKER] " + e.getMessage() + ", se reintenta " + clave + " en " + retryAfter(e) + " s");
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WORKER] Falló la conversión " + clave + ": " + e.getMessage());
+            audioCacheService.markFailed(clave, e.getMessage());
+        }
+    }
+
+    /**
+     * Espera antes de volver a entregar una petición rechazada por saturación: el Retry-After del nodo,
+     * hasta MAX_ESPERAS veces. Otros errores no se reintentan.
+     */
+    public BackOff reintento(Exception e) {
+        Throwable causa = causa(e);
+        if (causa instanceof ConversionBusyException || causa instanceof ConversionUnavailableException) {
+            return new FixedBackOff(retryAfter((RuntimeException) causa) * 1000, MAX_ESPERAS - 1);
+        }
+        return new FixedBackOff(0, 0);
+    }
+
+    /**
+     * Agotados los reintentos la petición se da por fallida (un worker sin yt-dlp no debe retenerla).
+     */
+    public void abandonar(ConversionRequestDTO c, Exception e) {
+        if (c == null) return;
+        Song song = Song.builder().id(c.getIdCancion()).url(c.getUrl()).build();
+        AudioFormat formato = AudioFormat.valueOf(c.getFormato());
+        AudioProfile profile = formato == AudioFormat.HLS ? AudioProfile.HLS
+                : AudioProfile.fromNombre(c.getPerfil()).conFormato(formato);
+        String clave = youtubeConversionService.cacheKey(song, profile);
+        System.err.println("[WORKER] Se abandona la conversión " + clave + ": " + causa(e).getMessage());
+        audioCacheService.markFailed(clave, causa(e).getMessage());
+    }
+
+    // Métodos privados
+    private static Throwable causa(Exception e) {
+        Throwable causa = e;
+        while (causa instanceof ListenerExecutionFailedException && causa.getCause() != null) {
+            causa = causa.getCause();
+        }
+        return causa;
+    }
+
+    private static long retryAfter(RuntimeException e) {
+        if (e instanceof ConversionBusyException b) return b.getRetryAfterSeconds();
+        return ((ConversionUnavailableException) e).getRetryAfterSeconds();
+    }
+}
@@ -0,0 +1,40 @@
+package es.musicfly.microserviciodecontenido.kafka;
+
+import es.musicfly.microserviciodecontenido.views.DTO.ConversionRequestDTO;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+@Service
+@RequiredArgsConstructor
+public class ConversionProducer {
+
+    public static final String TOPIC = "conversiones.v1";
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    // ------------------- CREACION DE TOPICS -------------------
+    @Bean
+    public NewTopic conversionesTopic() {
+        return new NewTopic(TOPIC, 3, (short) 1);
+    }
+
+    // Enviar petición de conversión. La clave de la rendition como key: las peticiones repetidas
+    // caen en la misma partición y el mismo worker las encuentra ya en caché
+    public CompletableFuture<SendResult<String, Object>> enviarConversion(ConversionRequestDTO c) {
+        Message<ConversionRequestDTO> message = MessageBuilder.withPayload(c)
+                .setHeader("__TypeId__", "conversion")
+                .setHeader("kafka_topic", TOPIC)
+                .setHeader("kafka_messageKey", c.getClave())
+                .build();
+
+        return kafkaTemplate.send(message);
+    }
+}
@@ -0,0 +1,87 @@
+package es.musicfly.microserviciodecontenido.models;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+/**
+ * Formato del fichero de audio servido. MP3 se recodifica con ffmpeg; WEBM (Opus) y M4A (AAC)
+ * son el flujo de audio que ya entrega YouTube, descargado tal cual sin decodificar ni recodificar.
+ * HLS es un directorio con la playlist maestra y los segmentos de cada bitrate; nunca se negocia por Accept.
+ */
+public enum AudioFormat {
+
+    M4A("audio/mp4", "m4a", "bestaudio[ext=m4a]", List.of("audio/mp4", "audio/aac", "audio/x-m4a")),
+    WEBM("audio/webm", "webm", "bestaudio[ext=webm]", List.of("audio/webm")),
+    MP3("audio/mpeg", "mp3", null, List.of("audio/mpeg", "audio/mp3")),
+    HLS("application/vnd.apple.mpegurl", "hls", null, List.of());
+
+    private final String mimeType;
+    private final String extension;
+    // Selector -f de yt-dlp para descargar el flujo nativo; null si hay que recodificar
+    private final String selector;
+    private final List<String> aceptados;
+
+    AudioFormat(String mimeType, String extension, String selector, List<String> aceptados) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+        this.selector = selector;
+        this.aceptados = aceptados;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    public boolean isPassthrough() {
+        return selector != null;
+    }
+
+    /**
+     * Formato de un fichero cacheado según su extensión (MP3 si no se reconoce).
+     */
+    public static AudioFormat fromFichero(String nombre) {
+        for (AudioFormat formato : values()) {
+            if (nombre.endsWith("." + formato.extension)) return formato;
+        }
+        return MP3;
+    }
+
+    /**
+     * Elige el formato a partir de la cabecera Accept. Gana el tipo de audio nombrado explícitamente con
+     * mayor calidad (q); si el cliente solo envía comodines (como audio/*) o nada, se usa el formato por defecto.
+     */
+    public static AudioFormat negotiate(String accept, AudioFormat porDefecto) {
+        if (accept == null || accept.isBlank()) return porDefecto;
+
+        List<MediaType> tipos;
+        try {
+            tipos = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return porDefecto;
+        }
+
+        AudioFormat mejor = null;
+        double mejorCalidad = 0;
+        for (AudioFormat formato : values()) {
+            for (MediaType tipo : tipos) {
+                if (tipo.isWildcardType() || tipo.isWildcardSubtype()) continue;
+                if (!formato.aceptados.contains(tipo.getType() + "/" + tipo.getSubtype())) continue;
+                if (tipo.getQualityValue() > mejorCalidad) {
+                    mejor = formato;
+                    mejorCalidad = tipo.getQualityValue();
+                }
+            }
+        }
+        return mejor != null ? mejor : porDefecto;
+    }
+}
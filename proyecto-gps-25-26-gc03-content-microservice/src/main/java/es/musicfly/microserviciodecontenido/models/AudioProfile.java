@@ -0,0 +1,45 @@
+package es.musicfly.microserviciodecontenido.models;
+
+import lombok.Value;
+
+/**
+ * Perfil de salida de una conversión (canción completa o preview, bitrate y formato).
+ * Junto con el identificador del vídeo forma la clave de la caché de audio.
+ */
+@Value
+public class AudioProfile {
+
+    public static final AudioProfile FULL = new AudioProfile("full", 192, null, AudioFormat.MP3);
+    // Clip corto y ligero: solo se descargan los primeros 30 segundos del original
+    public static final AudioProfile PREVIEW = new AudioProfile("preview", 64, 30, AudioFormat.MP3);
+    // Canción completa segmentada en varios bitrates; los bitrates salen de musicfly.hls.bitrates
+    public static final AudioProfile HLS = new AudioProfile("full", 0, null, AudioFormat.HLS);
+
+    String nombre;
+    int bitrateKbps;
+    // Segundos máximos de audio, null para la canción completa
+    Integer duracionMaxima;
+    AudioFormat formato;
+
+    /**
+     * Perfil por nombre ("full", "preview" o "hls"); lanza IllegalArgumentException si no existe.
+     */
+    public static AudioProfile fromNombre(String nombre) {
+        if (FULL.nombre.equalsIgnoreCase(nombre)) return FULL;
+        if ("hls".equalsIgnoreCase(nombre)) return HLS;
+        if (PREVIEW.nombre.equalsIgnoreCase(nombre)) return PREVIEW;
+        throw new IllegalArgumentException("Perfil de audio desconocido: " + nombre);
+    }
+
+    /**
+     * Mismo perfil en otro formato. El bitrate solo se aplica a MP3: el resto conserva el del original.
+     */
+    public AudioProfile conFormato(AudioFormat formato) {
+        return formato == this.formato ? this : new AudioProfile(nombre, bitrateKbps, duracionMaxima, formato);
+    }
+
+    public String getClave() {
+        if (formato != AudioFormat.MP3) return nombre + "-" + formato.getExtension();
+        return nombre + "-" + bitrateKbps + "k";
+    }
+}
@@ -0,0 +1,13 @@
+package es.musicfly.microserviciodecontenido.models;
+
+/**
+ * Carriles de prioridad del planificador de conversiones, de más a menos urgente.
+ */
+public enum ConversionPriority {
+    // stream y preview: hay un oyente esperando
+    INTERACTIVE,
+    // descargas completas
+    DOWNLOAD,
+    // trabajos en segundo plano (precarga, calentamiento de caché)
+    BACKGROUND
+}
@@ -45,6 +45,16 @@ public class Song {
     @Schema(description = "URL de la portada", example = "https://cdn.musicfly.com/covers/song123.jpg")
     private String urlPortada;
 
+    @Column
+    @Schema(description = "Fichero de audio subido por el artista (SHA-256 + extensión). Si existe, se sirve en lugar de la URL",
+            example = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08.m4a")
+    private String fuenteLocal;
+
+    @Column
+    @Schema(description = "Disponibilidad del vídeo según yt-dlp (public, unlisted, private, unavailable...). "
+            + "Null mientras no se han resuelto los metadatos", example = "public")
+    private String disponibilidad;
+
     @ManyToOne
     @JoinColumn(name = "album_id")  // clave foránea en la tabla de canciones
     @Schema(description = "Álbum al que pertenece")
@@ -0,0 +1,56 @@
+package es.musicfly.microserviciodecontenido.models.DAO;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "song_features", indexes = {
+        @Index(name = "idx_song_features_tempo", columnList = "tempo"),
+        @Index(name = "idx_song_features_energia", columnList = "energia"),
+        @Index(name = "idx_song_features_sonoridad", columnList = "sonoridad")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Schema(description = "Características de audio de una canción, calculadas a partir de su audio")
+public class SongFeatures {
+    @Id
+    @Schema(description = "ID de la canción analizada", example = "12")
+    private Long idCancion;
+
+    @Column
+    @Schema(description = "Duración real del audio en segundos", example = "354.5")
+    private Double duracion;
+
+    @Column
+    @Schema(description = "Sonoridad integrada en dBFS (con puertas como en EBU R128, sin filtro K)", example = "-9.8")
+    private Double sonoridad;
+
+    @Column
+    @Schema(description = "Tempo estimado en pulsaciones por minuto; null si no se detecta pulso", example = "118.2")
+    private Double tempo;
+
+    @Column
+    @Schema(description = "Energía de 0 a 1: RMS medio relativo a un seno a fondo de escala", example = "0.42")
+    private Double energia;
+
+    @Column
+    @Schema(description = "Audio analizado (vídeo de origen o fichero subido); si cambia se vuelve a analizar",
+            example = "dQw4w9WgXcQ")
+    private String origen;
+
+    @Column
+    @Schema(description = "Versión del análisis con la que se calcularon los valores", example = "1")
+    private Integer version;
+
+    @Column
+    @Schema(description = "Fecha del análisis")
+    private LocalDateTime fechaAnalisis;
+}
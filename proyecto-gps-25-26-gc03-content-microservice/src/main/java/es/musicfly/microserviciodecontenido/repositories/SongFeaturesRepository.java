@@ -0,0 +1,14 @@
+package es.musicfly.microserviciodecontenido.repositories;
+
+import es.musicfly.microserviciodecontenido.models.DAO.SongFeatures;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SongFeaturesRepository extends JpaRepository<SongFeatures, Long> {
+
+    List<SongFeatures> findByIdCancionIn(Collection<Long> idsCancion);
+}
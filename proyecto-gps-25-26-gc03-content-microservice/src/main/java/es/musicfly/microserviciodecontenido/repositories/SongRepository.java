@@ -1,9 +1,37 @@
 package es.musicfly.microserviciodecontenido.repositories;
 
+import es.musicfly.microserviciodecontenido.models.DAO.Genre;
 import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 @Repository
 public interface SongRepository extends JpaRepository<Song, Long> {
+
+    long countByFuenteLocal(String fuenteLocal);
+
+    List<Song> findByUrl(String url);
+
+    List<Song> findByUrlContaining(String fragmento);
+
+    List<Song> findByGeneroOrderByIdAsc(Genre genero);
+
+    List<Song> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    List<Song> findByDisponibilidadIsNullAndUrlIsNotNull();
+
+    List<Song> findByDisponibilidad(String disponibilidad);
+
+    // Solo la duración: no pisa cambios hechos en la canción mientras se analizaba
+    @Modifying
+    @Transactional
+    @Query("update Song s set s.duracion = :duracion where s.id = :id")
+    int updateDuracion(@Param("id") Long id, @Param("duracion") Double duracion);
 }
@@ -0,0 +1,178 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Descarga de un álbum entero como ZIP generado sobre la marcha.
+ * Al empezar se encolan a la vez las conversiones de todas las pistas que no están en caché (carril de
+ * descargas), y las entradas se escriben en orden según van estando listas: la primera pista sale hacia
+ * el cliente mientras las siguientes aún se convierten. El audio ya está comprimido, así que las entradas
+ * van sin comprimir (STORE) y se copian directamente desde la caché de renditions, sin pasar por memoria.
+ */
+@Service
+public class AlbumZipService {
+
+    private static final String ERRORES = "errores.txt";
+    private static final int BLOQUE = 64 * 1024;
+
+    private final YoutubeConversionService youtubeConversionService;
+
+    public AlbumZipService(YoutubeConversionService youtubeConversionService) {
+        this.youtubeConversionService = youtubeConversionService;
+    }
+
+    /**
+     * Escribe el ZIP de las canciones en la salida. Las pistas que no se pueden convertir o leer se omiten y se
+     * listan en errores.txt al final: con la respuesta ya empezada no se puede cambiar el código de estado.
+     */
+    public void write(List<Song> canciones, AudioProfile profile, OutputStream out) throws IOException, InterruptedException {
+        List<InFlightConversions.Ticket> tickets = new ArrayList<>();
+        List<String> errores = new ArrayList<>();
+
+        try {
+            // Todas las conversiones que falten, en paralelo según la concurrencia del planificador
+            for (Song song : canciones) {
+                try {
+                    tickets.add(youtubeConversionService.requestRendition(song, profile, ConversionPriority.DOWNLOAD));
+                } catch (RuntimeException e) {
+                    tickets.add(null);
+                }
+            }
+
+            ZipOutputStream zip = new ZipOutputStream(out);
+            for (int i = 0; i < canciones.size(); i++) {
+                Song song = canciones.get(i);
+                Path audio;
+                try {
+                    // Se une a la conversión encolada arriba (o la relanza si no se pudo encolar)
+                    audio = youtubeConversionService.getRendition(song, profile, ConversionPriority.DOWNLOAD);
+                } catch (IOException | RuntimeException e) {
+                    omitir(errores, i, song, e);
+                    continue;
+                } finally {
+                    if (tickets.get(i) != null) tickets.get(i).close();
+                }
+
+                // Un solo canal por pista: el CRC y la copia leen el mismo fichero aunque la caché lo desaloje entre medias
+                FileChannel canal;
+                try {
+                    canal = FileChannel.open(audio, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    omitir(errores, i, song, e);
+                    continue;
+                }
+                try (canal) {
+                    ZipEntry entrada;
+                    try {
+                        entrada = entrada(nombre(i, song, audio), audio, canal);
+                    } catch (IOException e) {
+                        // Aún no se ha escrito nada de la entrada: se omite y el ZIP sigue siendo válido
+                        omitir(errores, i, song, e);
+                        continue;
+                    }
+                    // A partir de aquí un fallo es de la conexión con el cliente y corta la descarga
+                    escribirEntrada(zip, entrada, canal);
+                }
+            }
+
+            if (!errores.isEmpty()) {
+                byte[] contenido = String.join("\n", errores).concat("\n").getBytes(StandardCharsets.UTF_8);
+                ZipEntry entrada = new ZipEntry(ERRORES);
+                zip.putNextEntry(entrada);
+                zip.write(contenido);
+                zip.closeEntry();
+            }
+            zip.finish();
+            zip.flush();
+        } finally {
+            // Cliente desconectado a medias: se sueltan las conversiones que solo esperaba esta descarga
+            for (InFlightConversions.Ticket ticket : tickets) {
+                if (ticket != null) ticket.close();
+            }
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Entrada STORE: el formato exige conocer de antemano tamaño y CRC, así que se hace una primera pasada
+     * por el canal que solo calcula el CRC (el fichero queda en la caché de páginas) y después se copia.
+     */
+    private static ZipEntry entrada(String nombre, Path audio, FileChannel canal) throws IOException {
+        long tamano = canal.size();
+        ZipEntry entrada = new ZipEntry(nombre);
+        entrada.setMethod(ZipEntry.STORED);
+        entrada.setSize(tamano);
+        entrada.setCompressedSize(tamano);
+        entrada.setCrc(crc(canal, tamano));
+        entrada.setLastModifiedTime(Files.getLastModifiedTime(audio));
+        return entrada;
+    }
+
+    private static void escribirEntrada(ZipOutputStream zip, ZipEntry entrada, FileChannel canal) throws IOException {
+        zip.putNextEntry(entrada);
+        WritableByteChannel destino = Channels.newChannel(zip);
+        long posicion = 0;
+        while (posicion < entrada.getSize()) {
+            long copiados = canal.transferTo(posicion, entrada.getSize() - posicion, destino);
+            if (copiados <= 0) throw new IOException("Fichero truncado: " + entrada.getName());
+            posicion += copiados;
+        }
+        zip.closeEntry();
+        zip.flush();
+    }
+
+    private static long crc(FileChannel canal, long tamano) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOQUE);
+        long posicion = 0;
+        while (posicion < tamano) {
+            buffer.limit((int) Math.min(BLOQUE, tamano - posicion));
+            int leidos = canal.read(buffer, posicion);
+            if (leidos < 0) throw new IOException("Fichero truncado");
+            posicion += leidos;
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+        }
+        return crc.getValue();
+    }
+
+    private static void omitir(List<String> errores, int posicion, Song song, Exception e) {
+        System.err.println("[ZIP] Pista omitida " + song.getId() + ": " + e.getMessage());
+        errores.add(nombre(posicion, song, null) + ": " + e.getMessage());
+    }
+
+    /**
+     * "01 - Nombre.mp3", sin caracteres que no admiten los sistemas de ficheros al descomprimir.
+     */
+    private static String nombre(int posicion, Song song, Path audio) {
+        String titulo = song.getNombre() == null || song.getNombre().isBlank() ? "Pista " + (posicion + 1) : song.getNombre();
+        titulo = titulo.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        String nombre = String.format("%02d - %s", posicion + 1, titulo);
+        if (audio == null) return nombre;
+        return nombre + "." + AudioFormat.fromFichero(audio.getFileName().toString()).getExtension();
+    }
+}
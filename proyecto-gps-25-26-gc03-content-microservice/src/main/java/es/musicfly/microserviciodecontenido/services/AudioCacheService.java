@@ -0,0 +1,471 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de las conversiones de audio, direccionada por origen y perfil de salida.
+ * Mantiene un presupuesto de bytes, expulsa por LRU o LFU y guarda un manifiesto que sobrevive a los reinicios.
+ * <p>
+ * Con el directorio compartido entre varios nodos (conversión distribuida) solo uno es el propietario
+ * ({@code musicfly.cache.owner=true}): es el único que expulsa, adopta ficheros y escribe el manifiesto, y
+ * revisa el directorio periódicamente para contar contra un único presupuesto lo que escriben los workers.
+ * El resto solo deja sus renditions en el directorio y mantiene un índice local para sus búsquedas, que
+ * descarta las entradas cuyo fichero ha expulsado el propietario.
+ */
+@Service
+public class AudioCacheService {
+
+    private static final String MANIFEST = "manifest.json";
+    // Marcas de conversiones fallidas que dejan los workers para los nodos que las esperan
+    private static final String FALLOS = ".fallos";
+    // Ficheros auxiliares de cada audio (índice de búsqueda...), que se borran junto con él
+    private static final String SIDECARS = ".sidecars";
+
+    public enum EvictionPolicy { LRU, LFU }
+
+    private final Path directorio;
+    private final long maxBytes;
+    private final EvictionPolicy politica;
+    private final boolean propietario;
+    private final long intervaloRevisionMs;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService revision = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "audio-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+    private final AtomicLong bytesUsados = new AtomicLong();
+
+    public AudioCacheService(
+            @Value("${musicfly.cache.dir:${user.home}/.musicfly_cache}") String directorio,
+            @Value("${musicfly.cache.max-bytes:2147483648}") long maxBytes,
+            @Value("${musicfly.cache.eviction:LRU}") EvictionPolicy politica,
+            @Value("${musicfly.cache.owner:true}") boolean propietario,
+            @Value("${musicfly.cache.sync-interval-ms:30000}") long intervaloRevisionMs
+    ) {
+        this.directorio = Paths.get(directorio);
+        this.maxBytes = maxBytes;
+        this.politica = politica;
+        this.propietario = propietario;
+        this.intervaloRevisionMs = Math.max(1000, intervaloRevisionMs);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directorio);
+        cargarManifiesto();
+        if (propietario) {
+            synchronized (this) {
+                adoptarHuerfanos();
+                expulsarSiNecesario(null);
+                guardarManifiesto();
+            }
+            revision.scheduleWithFixedDelay(this::revisar, intervaloRevisionMs, intervaloRevisionMs, TimeUnit.MILLISECONDS);
+        }
+        System.out.println("[CACHE] " + entradas.size() + " renditions (" + bytesUsados.get() + " bytes) en " + directorio
+                + (propietario ? "" : " (sin expulsión: la gestiona el nodo propietario)"));
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        revision.shutdownNow();
+        if (propietario) guardarManifiesto();
+    }
+
+    /**
+     * Devuelve la ruta de la entrada si está en caché y actualiza sus estadísticas de uso.
+     */
+    public Optional<Path> lookup(String clave) {
+        Entrada entrada = entradas.get(clave);
+        if (entrada == null) return Optional.empty();
+
+        Path path = directorio.resolve(entrada.getFichero());
+        if (!Files.exists(path)) {
+            // Borrada por fuera de la caché
+            eliminar(clave);
+            return Optional.empty();
+        }
+
+        synchronized (entrada) {
+            entrada.setUltimoAcceso(System.currentTimeMillis());
+            entrada.setAccesos(entrada.getAccesos() + 1);
+        }
+        return Optional.of(path);
+    }
+
+    public boolean contains(String clave) {
+        return entradas.containsKey(clave);
+    }
+
+    /**
+     * Mueve el fichero generado a la caché de forma atómica y lo registra bajo la clave indicada.
+     */
+    public synchronized Path put(String clave, Path origen) throws IOException {
+        String nombre = origen.getFileName().toString();
+        int punto = nombre.lastIndexOf('.');
+        String fichero = punto > 0 ? clave + nombre.substring(punto) : clave;
+
+        Path destino = directorio.resolve(fichero);
+        moverAtomico(origen, destino);
+
+        Entrada anterior = entradas.remove(clave);
+        if (anterior != null) {
+            bytesUsados.addAndGet(-anterior.getBytes());
+            if (!anterior.getFichero().equals(fichero)) borrar(directorio.resolve(anterior.getFichero()));
+            borrarSidecars(directorio.resolve(anterior.getFichero()));
+        }
+
+        // Cuenta como un acceso: con LFU una entrada nueva a 0 sería siempre la primera en salir
+        long ahora = System.currentTimeMillis();
+        Entrada entrada = new Entrada(clave, fichero, tamano(destino), ahora, ahora, 1);
+        entradas.put(clave, entrada);
+        bytesUsados.addAndGet(entrada.getBytes());
+
+        // La recién convertida nunca es candidata: el llamante va a servir la ruta que devolvemos
+        if (propietario) {
+            expulsarSiNecesario(clave);
+            guardarManifiesto();
+        }
+        borrar(directorio.resolve(FALLOS).resolve(clave));
+        return destino;
+    }
+
+    public synchronized void eliminar(String clave) {
+        Entrada entrada = entradas.remove(clave);
+        if (entrada == null) return;
+        bytesUsados.addAndGet(-entrada.getBytes());
+        borrarEntrada(entrada);
+        if (propietario) guardarManifiesto();
+    }
+
+    /**
+     * Elimina todas las renditions de un origen (claves "origen_perfil") y devuelve cuántas había.
+     */
+    public synchronized int eliminarOrigen(String origen) {
+        String prefijo = origen + "_";
+        List<String> claves = entradas.keySet().stream().filter(c -> c.startsWith(prefijo)).toList();
+        for (String clave : claves) {
+            Entrada entrada = entradas.remove(clave);
+            if (entrada == null) continue;
+            bytesUsados.addAndGet(-entrada.getBytes());
+            borrarEntrada(entrada);
+        }
+        if (propietario && !claves.isEmpty()) guardarManifiesto();
+        return claves.size();
+    }
+
+    /**
+     * Como {@link #lookup(String)}, pero si la clave no está en el índice de este nodo la busca en disco:
+     * con el directorio compartido entre nodos, la puede haber escrito un worker. Si la encuentra, la adopta.
+     */
+    public Optional<Path> refresh(String clave) {
+        Optional<Path> conocida = lookup(clave);
+        if (conocida.isPresent()) return conocida;
+
+        for (AudioFormat formato : AudioFormat.values()) {
+            String fichero = clave + "." + formato.getExtension();
+            Path path = directorio.resolve(fichero);
+            if (!Files.exists(path)) continue;
+            try {
+                synchronized (this) {
+                    if (!entradas.containsKey(clave)) {
+                        long ahora = System.currentTimeMillis();
+                        Entrada entrada = new Entrada(clave, fichero, tamano(path), ahora, ahora, 1);
+                        entradas.put(clave, entrada);
+                        bytesUsados.addAndGet(entrada.getBytes());
+                    }
+                }
+                return lookup(clave);
+            } catch (IOException | UncheckedIOException e) {
+                // Se está expulsando en otro nodo
+                return Optional.empty();
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Deja constancia de que la conversión de la clave ha fallado, para quien la espere desde otro nodo.
+     */
+    public void markFailed(String clave, String mensaje) {
+        try {
+            Path dir = Files.createDirectories(directorio.resolve(FALLOS));
+            Path temporal = dir.resolve("." + clave + ".tmp");
+            Files.writeString(temporal, mensaje == null ? "" : mensaje);
+            moverAtomico(temporal, dir.resolve(clave));
+        } catch (IOException e) {
+            System.err.println("[CACHE] No se pudo marcar el fallo de " + clave + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mensaje del último fallo de la clave si se marcó después del instante indicado (ms).
+     */
+    public Optional<String> getFailure(String clave, long desde) {
+        Path marca = directorio.resolve(FALLOS).resolve(clave);
+        try {
+            if (!Files.exists(marca) || Files.getLastModifiedTime(marca).toMillis() < desde) return Optional.empty();
+            return Optional.of(Files.readString(marca));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    public long getBytesUsados() {
+        return bytesUsados.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getNumeroEntradas() {
+        return entradas.size();
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    public boolean isPropietario() {
+        return propietario;
+    }
+
+    /**
+     * Solo en el nodo propietario: reconcilia el índice con el directorio compartido (quita lo borrado,
+     * adopta lo que han escrito otros nodos), expulsa hasta volver al presupuesto y guarda el manifiesto.
+     */
+    public synchronized void revisar() {
+        if (!propietario) return;
+        try {
+            for (Entrada entrada : new ArrayList<>(entradas.values())) {
+                if (!Files.exists(directorio.resolve(entrada.getFichero())) && entradas.remove(entrada.getClave(), entrada)) {
+                    bytesUsados.addAndGet(-entrada.getBytes());
+                }
+            }
+            adoptarHuerfanos();
+            expulsarSiNecesario(null);
+            guardarManifiesto();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("[CACHE] No se pudo revisar el directorio compartido: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ruta de un fichero auxiliar del audio (p. ej. "seek" para el índice de búsqueda). Vive en un
+     * subdirectorio oculto junto al audio y se borra cuando el audio sale de la caché o del almacén.
+     */
+    public static Path sidecar(Path audio, String tipo) {
+        return audio.resolveSibling(SIDECARS).resolve(audio.getFileName() + "." + tipo);
+    }
+
+    public static void borrarSidecars(Path audio) {
+        Path dir = audio.resolveSibling(SIDECARS);
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(dir, audio.getFileName() + ".*")) {
+            for (Path path : ficheros) Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[CACHE] No se pudieron borrar los auxiliares de " + audio + ": " + e.getMessage());
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Expulsa según la política hasta volver al presupuesto, sin tocar nunca la clave protegida (la que se
+     * está insertando). Si con el resto no basta, la caché se queda por encima del presupuesto hasta la
+     * siguiente inserción.
+     */
+    private void expulsarSiNecesario(String protegida) {
+        if (bytesUsados.get() <= maxBytes) return;
+
+        // Se ordena una foto de las estadísticas: lookup() las actualiza con el cerrojo de la entrada, no el
+        // de la caché, y ordenar valores que cambian rompe el contrato del comparador
+        Comparator<Candidata> orden = politica == EvictionPolicy.LFU
+                ? Comparator.comparingLong((Candidata c) -> c.accesos).thenComparingLong(c -> c.ultimoAcceso)
+                : Comparator.comparingLong((Candidata c) -> c.ultimoAcceso);
+
+        List<Candidata> candidatas = new ArrayList<>();
+        for (Entrada entrada : entradas.values()) {
+            if (entrada.getClave().equals(protegida)) continue;
+            synchronized (entrada) {
+                candidatas.add(new Candidata(entrada, entrada.getAccesos(), entrada.getUltimoAcceso()));
+            }
+        }
+        candidatas.sort(orden);
+
+        for (Candidata candidata : candidatas) {
+            if (bytesUsados.get() <= maxBytes) break;
+            Entrada entrada = candidata.entrada;
+            if (!entradas.remove(entrada.getClave(), entrada)) continue;
+            bytesUsados.addAndGet(-entrada.getBytes());
+            borrarEntrada(entrada);
+            System.out.println("[CACHE] Expulsada " + entrada.getClave() + " (" + entrada.getBytes() + " bytes)");
+        }
+    }
+
+    private void cargarManifiesto() {
+        Path manifiesto = directorio.resolve(MANIFEST);
+        if (!Files.exists(manifiesto)) return;
+
+        try {
+            List<Entrada> guardadas = objectMapper.readValue(manifiesto.toFile(), new TypeReference<List<Entrada>>() {});
+            for (Entrada entrada : guardadas) {
+                if (Files.exists(directorio.resolve(entrada.getFichero()))) {
+                    entradas.put(entrada.getClave(), entrada);
+                    bytesUsados.addAndGet(entrada.getBytes());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[CACHE] Manifiesto ilegible, se reconstruye desde disco: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registra los ficheros presentes en el directorio que no figuran en el manifiesto (p. ej. tras una caída).
+     */
+    private void adoptarHuerfanos() throws IOException {
+        Set<String> conocidos = new HashSet<>();
+        entradas.values().forEach(e -> conocidos.add(e.getFichero()));
+
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio)) {
+            for (Path path : ficheros) {
+                String nombre = path.getFileName().toString();
+                if (nombre.equals(MANIFEST) || nombre.startsWith(".") || conocidos.contains(nombre)) continue;
+
+                int punto = nombre.lastIndexOf('.');
+                String clave = punto > 0 ? nombre.substring(0, punto) : nombre;
+                if (entradas.containsKey(clave)) continue;
+
+                Entrada entrada;
+                try {
+                    long modificado = Files.getLastModifiedTime(path).toMillis();
+                    entrada = new Entrada(clave, nombre, tamano(path), modificado, modificado, 1);
+                } catch (IOException | UncheckedIOException e) {
+                    // Lo acaba de borrar otro nodo
+                    continue;
+                }
+                entradas.put(clave, entrada);
+                bytesUsados.addAndGet(entrada.getBytes());
+            }
+        }
+    }
+
+    private void guardarManifiesto() {
+        Path temporal = directorio.resolve("." + MANIFEST + ".tmp");
+        try {
+            objectMapper.writeValue(temporal.toFile(), new ArrayList<>(entradas.values()));
+            moverAtomico(temporal, directorio.resolve(MANIFEST));
+        } catch (IOException e) {
+            System.err.println("[CACHE] No se pudo guardar el manifiesto: " + e.getMessage());
+        }
+    }
+
+    private void moverAtomico(Path origen, Path destino) throws IOException {
+        // Un directorio (HLS) no puede reemplazar a otro no vacío: se borra antes la versión anterior
+        if (Files.isDirectory(origen) && Files.isDirectory(destino)) borrar(destino);
+        try {
+            Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Distinto sistema de ficheros: copiamos junto al destino y renombramos
+            Path temporal = destino.resolveSibling("." + destino.getFileName() + ".tmp");
+            borrar(temporal);
+            FileSystemUtils.copyRecursively(origen, temporal);
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            borrar(origen);
+        }
+    }
+
+    private void borrarEntrada(Entrada entrada) {
+        Path path = directorio.resolve(entrada.getFichero());
+        borrar(path);
+        borrarSidecars(path);
+    }
+
+    private static long tamano(Path path) throws IOException {
+        if (!Files.isDirectory(path)) return Files.size(path);
+        try (Stream<Path> walk = Files.walk(path)) {
+            return walk.filter(Files::isRegularFile).mapToLong(p -> {
+                try {
+                    return Files.size(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        }
+    }
+
+    private static void borrar(Path path) {
+        try {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            } else {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            System.err.println("[CACHE] No se pudo borrar " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static final class Candidata {
+        private final Entrada entrada;
+        private final long accesos;
+        private final long ultimoAcceso;
+
+        private Candidata(Entrada entrada, long accesos, long ultimoAcceso) {
+            this.entrada = entrada;
+            this.accesos = accesos;
+            this.ultimoAcceso = ultimoAcceso;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entrada {
+        private String clave;
+        private String fichero;
+        private long bytes;
+        private long creado;
+        private long ultimoAcceso;
+        private long accesos;
+    }
+}
@@ -0,0 +1,278 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Envía ficheros de audio cacheados con soporte completo de HTTP Range (206, multirango, If-Range)
+ * y validación condicional (ETag / Last-Modified). Los clips más pedidos salen directamente de
+ * {@link HotClipCache}; el resto viaja con sendfile cuando Tomcat lo permite o con
+ * {@link FileChannel#transferTo} en otro caso, sin pasar por buffers de la aplicación.
+ * Los streams de reproducción pueden enviarse a ritmo controlado con {@link PacedStreamer}.
+ */
+@Service
+public class AudioFileSender {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Por encima de este número de rangos se sirve el fichero entero
+    private static final int MAX_RANGOS = 16;
+
+    private final HotClipCache hotClipCache;
+    private final PacedStreamer pacedStreamer;
+
+    public AudioFileSender(HotClipCache hotClipCache,
+                           PacedStreamer pacedStreamer) {
+        this.hotClipCache = hotClipCache;
+        this.pacedStreamer = pacedStreamer;
+    }
+
+    /**
+     * Sirve el fichero respetando las cabeceras condicionales y de rango de la petición.
+     *
+     * @param immutable true si la URL identifica un contenido que nunca cambia (p. ej. segmentos). Si no,
+     *                  la respuesta es privada y se revalida siempre con el ETag: la misma URL puede pasar a
+     *                  servir otro audio (cambio de origen) y la petición tiene efectos (visualizaciones).
+     */
+    public void send(Path file, String contentType, String disposition, boolean immutable,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(file, 0, 0, contentType, disposition, immutable, request, response);
+    }
+
+    /**
+     * Igual que {@link #send(Path, String, String, boolean, HttpServletRequest, HttpServletResponse)} pero
+     * sirviendo el fichero a partir del byte indicado (p. ej. la trama desde la que reanudar). Para la
+     * petición el recurso es solo ese tramo final: los rangos se cuentan desde él y tiene su propio ETag.
+     *
+     * @param bitrate bytes por segundo de la pista para enviarla a ritmo con {@link PacedStreamer}; 0 para
+     *                enviarla tan rápido como admita el socket.
+     */
+    public void send(Path file, long desde, long bitrate, String contentType, String disposition, boolean immutable,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long tamano = Files.size(file);
+        desde = Math.max(0, Math.min(desde, tamano));
+        long longitud = tamano - desde;
+        long modificado = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+        String etag = "\"" + file.getFileName() + "-" + Long.toHexString(tamano) + "-" + Long.toHexString(modificado)
+                + (desde > 0 ? "-" + Long.toHexString(desde) : "") + "\"";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, modificado);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable ? "public, max-age=31536000, immutable" : "private, no-cache");
+        if (disposition != null) response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition);
+
+        if (noModificado(request, etag, modificado)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        List<long[]> rangos = null;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangoVigente(request, etag, modificado)) {
+            rangos = parsearRangos(range, longitud);
+            if (rangos == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + longitud);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (rangos.isEmpty() || rangos.size() > MAX_RANGOS) rangos = null;
+        }
+
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+
+        if (rangos == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(longitud);
+            if (!head) enviarTramo(file, desde, longitud, bitrate, request, response);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (rangos.size() == 1) {
+            long[] r = rangos.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + r[0] + "-" + r[1] + "/" + longitud);
+            response.setContentLengthLong(r[1] - r[0] + 1);
+            if (!head) enviarTramo(file, desde + r[0], r[1] - r[0] + 1, bitrate, request, response);
+            return;
+        }
+
+        // multipart/byteranges: calculamos la longitud exacta antes de escribir
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> cabeceras = new ArrayList<>();
+        long total = 0;
+        for (long[] r : rangos) {
+            byte[] cabecera = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + r[0] + "-" + r[1] + "/" + longitud + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            cabeceras.add(cabecera);
+            total += cabecera.length + (r[1] - r[0] + 1);
+        }
+        byte[] cierre = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        total += cierre.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(total);
+        if (head) return;
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel canal = Channels.newChannel(out);
+        ByteBuffer memoria = hotClipCache.get(file);
+        if (memoria != null) {
+            for (int i = 0; i < rangos.size(); i++) {
+                long[] r = rangos.get(i);
+                out.write(cabeceras.get(i));
+                escribir(memoria, desde + r[0], r[1] - r[0] + 1, canal);
+            }
+        } else {
+            try (FileChannel fichero = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (int i = 0; i < rangos.size(); i++) {
+                    long[] r = rangos.get(i);
+                    out.write(cabeceras.get(i));
+                    transferir(fichero, desde + r[0], r[1] - r[0] + 1, canal);
+                }
+            }
+        }
+        out.write(cierre);
+        out.flush();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private void enviarTramo(Path file, long inicio, long cuenta, long bitrate, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        ByteBuffer memoria = hotClipCache.get(file);
+        if (bitrate > 0) {
+            pacedStreamer.start(request, response, file, memoria, inicio, cuenta, bitrate);
+            return;
+        }
+        if (memoria != null) {
+            OutputStream out = response.getOutputStream();
+            escribir(memoria, inicio, cuenta, Channels.newChannel(out));
+            out.flush();
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat hace sendfile desde el conector cuando termina la petición
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, inicio);
+            request.setAttribute(SENDFILE_END, inicio + cuenta);
+            return;
+        }
+
+        try (FileChannel fichero = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            transferir(fichero, inicio, cuenta, Channels.newChannel(out));
+            out.flush();
+        }
+    }
+
+    private static void transferir(FileChannel fichero, long inicio, long cuenta, WritableByteChannel destino) throws IOException {
+        long enviado = 0;
+        while (enviado < cuenta) {
+            long n = fichero.transferTo(inicio + enviado, cuenta - enviado, destino);
+            if (n <= 0) break;
+            enviado += n;
+        }
+    }
+
+    private static void escribir(ByteBuffer memoria, long inicio, long cuenta, WritableByteChannel destino) throws IOException {
+        ByteBuffer tramo = memoria.slice((int) inicio, (int) cuenta);
+        while (tramo.hasRemaining()) destino.write(tramo);
+    }
+
+    private static boolean noModificado(HttpServletRequest request, String etag, long modificado) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidato : ifNoneMatch.split(",")) {
+                String valor = candidato.trim();
+                if (valor.startsWith("W/")) valor = valor.substring(2);
+                if (valor.equals("*") || valor.equals(etag)) return true;
+            }
+            return false;
+        }
+        long ifModifiedSince = fecha(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && modificado <= ifModifiedSince;
+    }
+
+    /**
+     * If-Range: el rango solo se aplica si el validador coincide con la versión actual; si no, se envía todo.
+     */
+    private static boolean rangoVigente(HttpServletRequest request, String etag, long modificado) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(etag);
+        long fecha = fecha(request, HttpHeaders.IF_RANGE);
+        return fecha != -1 && fecha == modificado;
+    }
+
+    private static long fecha(HttpServletRequest request, String cabecera) {
+        try {
+            return request.getDateHeader(cabecera);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Devuelve los rangos [inicio, fin] satisfacibles, una lista vacía si la cabecera no es de bytes
+     * (se ignora) o null si ninguno es satisfacible (416).
+     */
+    static List<long[]> parsearRangos(String cabecera, long longitud) {
+        if (!cabecera.startsWith("bytes=")) return List.of();
+
+        List<long[]> rangos = new ArrayList<>();
+        for (String parte : cabecera.substring(6).split(",")) {
+            String rango = parte.trim();
+            int guion = rango.indexOf('-');
+            if (guion < 0) return List.of();
+            try {
+                long inicio;
+                long fin;
+                if (guion == 0) {
+                    // Sufijo: los últimos N bytes
+                    long sufijo = Long.parseLong(rango.substring(1));
+                    if (sufijo == 0) continue;
+                    inicio = Math.max(0, longitud - sufijo);
+                    fin = longitud - 1;
+                } else {
+                    inicio = Long.parseLong(rango.substring(0, guion));
+                    fin = guion == rango.length() - 1 ? longitud - 1 : Long.parseLong(rango.substring(guion + 1));
+                    if (fin < inicio) return List.of();
+                    fin = Math.min(fin, longitud - 1);
+                }
+                if (inicio < longitud) rangos.add(new long[]{inicio, fin});
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        }
+        return rangos.isEmpty() ? null : rangos;
+    }
+}
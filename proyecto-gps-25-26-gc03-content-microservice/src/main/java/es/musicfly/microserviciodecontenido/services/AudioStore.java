@@ -0,0 +1,158 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import es.musicfly.microserviciodecontenido.utils.YoutubeUrls;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Almacén del audio de las canciones direccionado por contenido.
+ * <ul>
+ *     <li>El audio subido se guarda como {@code <sha256>.<ext>}: el mismo fichero subido para varias
+ *     canciones ocupa un único blob y comparte una única serie de renditions (su origen es el hash).</li>
+ *     <li>Las canciones que apuntan al mismo vídeo ya comparten renditions, cuyo origen es el ID del vídeo.</li>
+ * </ul>
+ * Las referencias son las propias filas de Song que apuntan al blob o al vídeo: no hay un contador aparte
+ * que pueda desincronizarse. Al soltar la última referencia se borran el blob y sus renditions.
+ */
+@Service
+public class AudioStore {
+
+    private static final String PREFIJO_SUBIDA = "up_";
+
+    private final SongRepository songRepository;
+    private final AudioCacheService audioCacheService;
+    private final SeekIndexService seekIndexService;
+    private final WaveformService waveformService;
+    private final Path directorio;
+    private final Counter deduplicados;
+    private final Counter liberados;
+
+    public AudioStore(SongRepository songRepository,
+                      AudioCacheService audioCacheService,
+                      SeekIndexService seekIndexService,
+                      WaveformService waveformService,
+                      @Value("${musicfly.uploads.dir:uploads}") String directorio,
+                      MeterRegistry meterRegistry) throws IOException {
+        this.songRepository = songRepository;
+        this.audioCacheService = audioCacheService;
+        this.seekIndexService = seekIndexService;
+        this.waveformService = waveformService;
+        this.directorio = Paths.get(directorio).toAbsolutePath();
+        Files.createDirectories(this.directorio);
+
+        this.deduplicados = Counter.builder("musicfly.store.deduplicated")
+                .description("Subidas cuyo contenido ya estaba almacenado y se reutilizó").register(meterRegistry);
+        this.liberados = Counter.builder("musicfly.store.released")
+                .description("Orígenes borrados al eliminarse la última canción que los usaba").register(meterRegistry);
+    }
+
+    /**
+     * Origen en la caché de renditions de un fichero subido: sus claves son {@code up_<hash>_<perfil>}.
+     */
+    public static String origen(String fichero) {
+        return PREFIJO_SUBIDA + fichero.substring(0, 16);
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    /**
+     * Ruta del blob, o null si el nombre no es un fichero del almacén.
+     */
+    public Path resolve(String fichero) {
+        if (fichero == null) return null;
+        Path path = directorio.resolve(fichero).normalize();
+        return directorio.equals(path.getParent()) ? path : null;
+    }
+
+    /**
+     * Guarda el fichero verificado como audio de la canción. Si el mismo contenido ya estaba almacenado
+     * se descarta la copia nueva y la canción pasa a compartir el blob existente. El audio anterior
+     * de la canción se libera si ya no lo usa nadie.
+     */
+    public synchronized void attach(Song song, Path fichero, String sha256, String extension) throws IOException {
+        String nombre = sha256 + "." + extension;
+        Path destino = directorio.resolve(nombre);
+        if (Files.exists(destino)) {
+            Files.delete(fichero);
+            deduplicados.increment();
+            System.out.println("[STORE] Contenido ya almacenado, se reutiliza " + nombre);
+        } else {
+            try {
+                Files.move(fichero, destino, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(fichero, destino, StandardCopyOption.REPLACE_EXISTING);
+            }
+            seekIndexService.build(destino);
+            waveformService.schedule(destino);
+        }
+
+        String anterior = song.getFuenteLocal();
+        song.setFuenteLocal(nombre);
+        songRepository.save(song);
+        if (anterior != null && !anterior.equals(nombre)) releaseUpload(anterior);
+    }
+
+    /**
+     * Suelta las referencias de una canción ya borrada: su blob subido y las renditions de su vídeo.
+     */
+    public void release(Song song) {
+        releaseUpload(song.getFuenteLocal());
+        releaseSource(song.getUrl());
+    }
+
+    /**
+     * Borra el blob y sus renditions si ninguna canción lo referencia ya.
+     *
+     * @return true si se ha borrado.
+     */
+    public synchronized boolean releaseUpload(String fichero) {
+        Path path = resolve(fichero);
+        if (path == null || songRepository.countByFuenteLocal(fichero) > 0) return false;
+
+        try {
+            Files.deleteIfExists(path);
+            AudioCacheService.borrarSidecars(path);
+        } catch (IOException e) {
+            System.err.println("[STORE] No se pudo borrar " + path + ": " + e.getMessage());
+            return false;
+        }
+        int renditions = audioCacheService.eliminarOrigen(origen(fichero));
+        liberados.increment();
+        System.out.println("[STORE] Liberado " + fichero + " y " + renditions + " renditions");
+        return true;
+    }
+
+    /**
+     * Borra las renditions de un vídeo si ninguna canción apunta ya a él (con cualquier variante de su URL).
+     *
+     * @return true si se han borrado.
+     */
+    public boolean releaseSource(String url) {
+        if (url == null || url.isBlank()) return false;
+
+        String origen = YoutubeUrls.sourceId(url);
+        String videoId = YoutubeUrls.videoId(url);
+        List<Song> candidatas = videoId != null ? songRepository.findByUrlContaining(videoId) : songRepository.findByUrl(url);
+        if (candidatas.stream().anyMatch(s -> origen.equals(YoutubeUrls.sourceId(s.getUrl())))) return false;
+
+        int renditions = audioCacheService.eliminarOrigen(origen);
+        if (renditions == 0) return false;
+        liberados.increment();
+        System.out.println("[STORE] Liberadas " + renditions + " renditions de " + origen);
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import es.musicfly.microserviciodecontenido.exceptions.SourceUnavailableException;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Precalentamiento de la caché de audio: convierte en segundo plano las canciones más escuchadas y con más
+ * favoritos según el microservicio de estadísticas, y las canciones recién creadas, para que tras un despliegue
+ * o un borrado de la caché el primer oyente no pague la conversión.
+ * Todo va por el carril BACKGROUND con un límite propio de conversiones simultáneas y de espacio en disco.
+ */
+@Service
+public class CacheWarmupService {
+
+    private final EstadisticasClient estadisticasClient;
+    private final SongRepository songRepository;
+    private final YoutubeConversionService youtubeConversionService;
+    private final RenditionJobService renditionJobService;
+    private final AudioCacheService audioCacheService;
+
+    private final boolean enabled;
+    private final int top;
+    private final int maxConversiones;
+    private final double fraccionCache;
+    private final long esperaMaximaMs;
+    // Las rondas corren en un hilo propio: el planificador de Spring es compartido por todas las tareas
+    // periódicas (entre ellas el sondeo de las conversiones remotas que las rondas esperan)
+    private final ExecutorService ejecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cache-warmup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean enRonda = new AtomicBoolean();
+
+    public CacheWarmupService(EstadisticasClient estadisticasClient,
+                              SongRepository songRepository,
+                              YoutubeConversionService youtubeConversionService,
+                              RenditionJobService renditionJobService,
+                              AudioCacheService audioCacheService,
+                              @Value("${musicfly.warmup.enabled:true}") boolean enabled,
+                              @Value("${musicfly.warmup.top:20}") int top,
+                              @Value("${musicfly.warmup.max-concurrent:1}") int maxConversiones,
+                              @Value("${musicfly.warmup.max-cache-fraction:0.5}") double fraccionCache,
+                              @Value("${musicfly.warmup.conversion-timeout-ms:600000}") long esperaMaximaMs) {
+        this.estadisticasClient = estadisticasClient;
+        this.songRepository = songRepository;
+        this.youtubeConversionService = youtubeConversionService;
+        this.renditionJobService = renditionJobService;
+        this.audioCacheService = audioCacheService;
+        this.enabled = enabled;
+        this.top = top;
+        this.maxConversiones = Math.max(1, maxConversiones);
+        this.fraccionCache = fraccionCache;
+        this.esperaMaximaMs = esperaMaximaMs;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ejecutor.shutdownNow();
+    }
+
+    /**
+     * Lanza una ronda de precalentamiento poco después del arranque y luego periódicamente. La ronda corre
+     * en el hilo del servicio y este método vuelve enseguida; si la anterior sigue en marcha no se lanza otra.
+     */
+    @Scheduled(initialDelayString = "${musicfly.warmup.initial-delay-ms:30000}",
+            fixedDelayString = "${musicfly.warmup.interval-ms:900000}")
+    public void warmTrending() {
+        if (!enabled || !enRonda.compareAndSet(false, true)) return;
+        try {
+            ejecutor.execute(() -> {
+                try {
+                    ronda();
+                } catch (RuntimeException e) {
+                    System.err.println("[WARMUP] Ronda interrumpida: " + e.getMessage());
+                } finally {
+                    enRonda.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Ejecutor parado durante el apagado
+            enRonda.set(false);
+        }
+    }
+
+    /**
+     * Encola con baja prioridad la conversión de una canción recién creada. Nunca falla la creación.
+     */
+    public void warmNewSong(Song song) {
+        if (!enabled || song.getUrl() == null || sinPresupuestoDisco()) return;
+        try {
+            renditionJobService.enqueue(song, perfiles().get(0));
+        } catch (ConversionBusyException | ConversionUnavailableException | SourceUnavailableException e) {
+            System.out.println("[WARMUP] No se precalienta la canción " + song.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Convierte el top de canciones que aún no está en caché, con como mucho {@code maxConversiones} a la
+     * vez. Cada espera está acotada, así que una conversión atascada no retiene la ronda indefinidamente.
+     */
+    private void ronda() {
+        Set<Long> ids = candidatos();
+        if (ids.isEmpty()) return;
+
+        Deque<InFlightConversions.Ticket> enCurso = new ArrayDeque<>();
+        int calentadas = 0;
+        try {
+            ronda:
+            for (Long id : ids) {
+                Optional<Song> song = songRepository.findById(id);
+                if (song.isEmpty()) continue;
+
+                for (AudioProfile profile : perfiles()) {
+                    if (sinPresupuestoDisco()) {
+                        System.out.println("[WARMUP] Presupuesto de disco agotado, se detiene la ronda");
+                        break ronda;
+                    }
+
+                    InFlightConversions.Ticket ticket;
+                    try {
+                        ticket = youtubeConversionService.requestRendition(song.get(), profile, ConversionPriority.BACKGROUND);
+                    } catch (ConversionBusyException | ConversionUnavailableException e) {
+                        // Hay tráfico real o yt-dlp no está listo: se intenta en la siguiente ronda
+                        System.out.println("[WARMUP] " + e.getMessage() + ", se pospone el resto de la ronda");
+                        break ronda;
+                    } catch (SourceUnavailableException e) {
+                        // Vídeo eliminado o bloqueado: ninguna otra rendition de la canción saldrá
+                        continue ronda;
+                    }
+                    if (ticket == null) continue;
+
+                    enCurso.add(ticket);
+                    if (enCurso.size() >= maxConversiones && esperar(enCurso.poll())) calentadas++;
+                }
+            }
+            // Las que ya están en marcha se terminan aunque la ronda se corte
+            while (!enCurso.isEmpty()) {
+                if (esperar(enCurso.poll())) calentadas++;
+            }
+        } finally {
+            enCurso.forEach(InFlightConversions.Ticket::close);
+            if (calentadas > 0) System.out.println("[WARMUP] " + calentadas + " renditions precalentadas");
+        }
+    }
+
+    /**
+     * Intercala las más escuchadas y las de más favoritos, sin repetir, hasta el tamaño del top.
+     */
+    private Set<Long> candidatos() {
+        Iterator<Long> visualizaciones = estadisticasClient.getTopVisualizaciones(top).iterator();
+        Iterator<Long> favoritos = estadisticasClient.getTopFavoritos(top).iterator();
+
+        Set<Long> ids = new LinkedHashSet<>();
+        while (ids.size() < top && (visualizaciones.hasNext() || favoritos.hasNext())) {
+            if (visualizaciones.hasNext()) ids.add(visualizaciones.next());
+            if (favoritos.hasNext() && ids.size() < top) ids.add(favoritos.next());
+        }
+        return ids;
+    }
+
+    /**
+     * Se calientan los formatos que /preview y /stream sirven a un cliente sin preferencias.
+     */
+    private List<AudioProfile> perfiles() {
+        return List.of(
+                youtubeConversionService.negotiate(AudioProfile.PREVIEW, null, AudioFormat.M4A),
+                youtubeConversionService.negotiate(AudioProfile.FULL, null, AudioFormat.M4A));
+    }
+
+    private boolean sinPresupuestoDisco() {
+        return audioCacheService.getBytesUsados() >= audioCacheService.getMaxBytes() * fraccionCache;
+    }
+
+    private boolean esperar(InFlightConversions.Ticket ticket) {
+        try (ticket) {
+            ticket.getFuture().get(esperaMaximaMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            // Al cerrar el ticket se cancela si nadie más la espera
+            System.err.println("[WARMUP] Conversión sin terminar tras " + esperaMaximaMs + " ms, se abandona");
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("[WARMUP] Falló una conversión: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
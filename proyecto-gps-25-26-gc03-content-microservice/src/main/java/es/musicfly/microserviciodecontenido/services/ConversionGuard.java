@@ -0,0 +1,262 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import es.musicfly.microserviciodecontenido.exceptions.SourceUnavailableException;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.utils.YoutubeUrls;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Protege el backend de conversión (yt-dlp/ffmpeg) de los fallos repetidos:
+ * <ul>
+ *     <li>Caché negativa por origen: un vídeo eliminado o bloqueado responde 410 durante un TTL
+ *     sin volver a lanzar yt-dlp.</li>
+ *     <li>Cortocircuito: tras varios fallos seguidos del backend (red, 429, 5xx...) las conversiones
+ *     responden 503 de inmediato hasta que una conversión de prueba sale bien.</li>
+ *     <li>Reintentos con espera exponencial y jitter para los fallos transitorios, limitados por un
+ *     presupuesto proporcional al número de conversiones para no multiplicar la carga en una caída.</li>
+ * </ul>
+ */
+@Service
+public class ConversionGuard {
+
+    public enum Fallo { PERMANENTE, TRANSITORIO, FORMATO, DESCONOCIDO }
+
+    public enum Estado { CERRADO, SEMIABIERTO, ABIERTO }
+
+    private static final Pattern PERMANENTE = Pattern.compile("(?i)video unavailable|private video|has been removed"
+            + "|no longer available|not available in your country|blocked it in your country|copyright"
+            + "|account associated with this video has been terminated|unsupported url|http error 404"
+            + "|http error 410|sign in to confirm your age|members-only|is not a valid url");
+    // 403 no es un vídeo muerto: YouTube lo devuelve al limitar, al caducar la firma o al pedir verificación
+    private static final Pattern TRANSITORIO = Pattern.compile("(?i)http error (403|429|5\\d\\d)|timed out|timeout"
+            + "|connection (reset|refused|aborted)|temporary failure|name resolution|remote end closed"
+            + "|unable to download (webpage|api)|incompleteread|network is unreachable");
+    private static final Pattern FORMATO = Pattern.compile("(?i)requested format is not available");
+
+    private static final double MAX_FICHAS = 10;
+    private static final int MAX_NEGATIVOS = 10_000;
+
+    private final long ttlNegativo;
+    private final int umbral;
+    private final long aperturaMs;
+    private final int maxIntentos;
+    private final long esperaBaseMs;
+    private final long esperaMaxMs;
+    private final double ratioReintentos;
+
+    private final Map<String, Negativo> negativos = new ConcurrentHashMap<>();
+    private final Counter negativosServidos;
+    private final Counter reintentos;
+    private final Counter cortocircuitados;
+
+    private Estado estado = Estado.CERRADO;
+    private int fallosSeguidos;
+    private long abiertoHasta;
+    private long pruebaHasta;
+    private double fichas = MAX_FICHAS;
+
+    public ConversionGuard(
+            @Value("${musicfly.conversion.negative-ttl-ms:21600000}") long ttlNegativo,
+            @Value("${musicfly.conversion.breaker.failure-threshold:5}") int umbral,
+            @Value("${musicfly.conversion.breaker.open-ms:30000}") long aperturaMs,
+            @Value("${musicfly.conversion.retry.max-attempts:3}") int maxIntentos,
+            @Value("${musicfly.conversion.retry.base-delay-ms:500}") long esperaBaseMs,
+            @Value("${musicfly.conversion.retry.max-delay-ms:8000}") long esperaMaxMs,
+            @Value("${musicfly.conversion.retry.budget-ratio:0.2}") double ratioReintentos,
+            MeterRegistry meterRegistry
+    ) {
+        this.ttlNegativo = ttlNegativo;
+        this.umbral = Math.max(1, umbral);
+        this.aperturaMs = aperturaMs;
+        this.maxIntentos = Math.max(1, maxIntentos);
+        this.esperaBaseMs = esperaBaseMs;
+        this.esperaMaxMs = esperaMaxMs;
+        this.ratioReintentos = ratioReintentos;
+
+        Gauge.builder("musicfly.conversion.breaker.state", this, g -> g.getEstado().ordinal())
+                .description("Estado del cortocircuito de conversiones (0 cerrado, 1 semiabierto, 2 abierto)").register(meterRegistry);
+        Gauge.builder("musicfly.conversion.negative.entries", negativos, Map::size)
+                .description("Orígenes en la caché negativa").register(meterRegistry);
+        this.negativosServidos = Counter.builder("musicfly.conversion.negative.hits")
+                .description("Peticiones rechazadas por la caché negativa").register(meterRegistry);
+        this.reintentos = Counter.builder("musicfly.conversion.retries")
+                .description("Reintentos de conversiones tras un fallo transitorio").register(meterRegistry);
+        this.cortocircuitados = Counter.builder("musicfly.conversion.breaker.rejected")
+                .description("Conversiones rechazadas con el cortocircuito abierto").register(meterRegistry);
+    }
+
+    /**
+     * Comprueba, antes de encolar una conversión, que el origen no está en la caché negativa
+     * y que el cortocircuito deja pasar.
+     *
+     * @throws SourceUnavailableException     si el origen falló de forma permanente hace menos del TTL.
+     * @throws ConversionUnavailableException si el cortocircuito está abierto.
+     */
+    public void check(Song song) {
+        checkSource(song);
+
+        long espera = permitir();
+        if (espera > 0) {
+            cortocircuitados.increment();
+            throw new ConversionUnavailableException("El backend de conversión está fallando, se reintentará en breve",
+                    Math.max(1, (espera + 999) / 1000));
+        }
+    }
+
+    /**
+     * Solo la caché negativa, sin consumir la conversión de prueba del cortocircuito.
+     *
+     * @throws SourceUnavailableException si el origen falló de forma permanente hace menos del TTL.
+     */
+    public void checkSource(Song song) {
+        String origen = YoutubeUrls.sourceId(song.getUrl());
+        Negativo negativo = negativos.get(origen);
+        if (negativo != null) {
+            if (negativo.expira > System.currentTimeMillis()) {
+                negativosServidos.increment();
+                throw new SourceUnavailableException("El vídeo de origen no está disponible: " + negativo.motivo);
+            }
+            negativos.remove(origen, negativo);
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        fallosSeguidos = 0;
+        if (estado != Estado.CERRADO) System.out.println("[CONVERSION] Cortocircuito cerrado");
+        estado = Estado.CERRADO;
+        depositar();
+    }
+
+    /**
+     * Clasifica el fallo de una conversión y actualiza la caché negativa o el cortocircuito.
+     * Los fallos permanentes del origen y los de formato no cuentan contra el backend.
+     */
+    public Fallo recordFailure(Song song, Throwable error) {
+        Fallo fallo = clasificar(error);
+        if (fallo == Fallo.PERMANENTE) {
+            if (negativos.size() >= MAX_NEGATIVOS) purgar();
+            negativos.put(YoutubeUrls.sourceId(song.getUrl()),
+                    new Negativo(motivo(error), System.currentTimeMillis() + ttlNegativo));
+            System.out.println("[CONVERSION] Origen no disponible, en caché negativa: " + song.getUrl());
+        }
+        synchronized (this) {
+            depositar();
+            if (fallo == Fallo.PERMANENTE || fallo == Fallo.FORMATO) {
+                // El backend respondió con normalidad: el problema es del vídeo
+                if (estado == Estado.SEMIABIERTO) estado = Estado.CERRADO;
+                fallosSeguidos = 0;
+            } else {
+                fallosSeguidos++;
+                if (estado == Estado.SEMIABIERTO || fallosSeguidos >= umbral) abrir();
+            }
+        }
+        return fallo;
+    }
+
+    /**
+     * Espera (ms) antes de reintentar tras el intento indicado, o -1 si no se debe reintentar:
+     * el fallo no es transitorio, se agotaron los intentos, el cortocircuito se abrió o no queda presupuesto.
+     */
+    public synchronized long retryDelay(Fallo fallo, int intento) {
+        if (fallo != Fallo.TRANSITORIO || intento >= maxIntentos || estado != Estado.CERRADO || fichas < 1) return -1;
+        fichas--;
+        reintentos.increment();
+        // Jitter "igual": la mitad fija y la otra mitad aleatoria, para no sincronizar los reintentos
+        long tope = Math.min(esperaMaxMs, esperaBaseMs << Math.min(intento - 1, 20));
+        return tope / 2 + ThreadLocalRandom.current().nextLong(tope / 2 + 1);
+    }
+
+    public synchronized Estado getEstado() {
+        if (estado == Estado.ABIERTO && System.currentTimeMillis() >= abiertoHasta) return Estado.SEMIABIERTO;
+        return estado;
+    }
+
+    /**
+     * Mete el origen en la caché negativa sin haber intentado convertirlo, p. ej. cuando la ingesta de
+     * metadatos ya ha visto que el vídeo no está disponible. No cuenta como fallo del backend.
+     */
+    public void recordUnavailable(String url, String motivo) {
+        if (negativos.size() >= MAX_NEGATIVOS) purgar();
+        negativos.put(YoutubeUrls.sourceId(url), new Negativo(motivo, System.currentTimeMillis() + ttlNegativo));
+    }
+
+    public void forget(Song song) {
+        negativos.remove(YoutubeUrls.sourceId(song.getUrl()));
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Devuelve 0 si la conversión puede pasar o los ms que faltan para volver a intentarlo.
+     * Semiabierto deja pasar una única conversión de prueba; si su resultado no llega (p. ej. se canceló)
+     * se permite otra al cabo del mismo tiempo de apertura.
+     */
+    private synchronized long permitir() {
+        long ahora = System.currentTimeMillis();
+        if (estado == Estado.CERRADO) return 0;
+        if (estado == Estado.ABIERTO) {
+            if (ahora < abiertoHasta) return abiertoHasta - ahora;
+            estado = Estado.SEMIABIERTO;
+            pruebaHasta = 0;
+        }
+        if (ahora < pruebaHasta) return pruebaHasta - ahora;
+        pruebaHasta = ahora + aperturaMs;
+        System.out.println("[CONVERSION] Cortocircuito semiabierto, se deja pasar una conversión de prueba");
+        return 0;
+    }
+
+    private void abrir() {
+        if (estado != Estado.ABIERTO) {
+            System.err.println("[CONVERSION] Cortocircuito abierto tras " + fallosSeguidos + " fallos seguidos");
+        }
+        estado = Estado.ABIERTO;
+        abiertoHasta = System.currentTimeMillis() + aperturaMs;
+    }
+
+    private void depositar() {
+        fichas = Math.min(MAX_FICHAS, fichas + ratioReintentos);
+    }
+
+    private void purgar() {
+        long ahora = System.currentTimeMillis();
+        negativos.values().removeIf(n -> n.expira <= ahora);
+    }
+
+    private static Fallo clasificar(Throwable error) {
+        String mensaje = motivo(error);
+        if (FORMATO.matcher(mensaje).find()) return Fallo.FORMATO;
+        if (PERMANENTE.matcher(mensaje).find()) return Fallo.PERMANENTE;
+        if (TRANSITORIO.matcher(mensaje).find()) return Fallo.TRANSITORIO;
+        return Fallo.DESCONOCIDO;
+    }
+
+    private static String motivo(Throwable error) {
+        StringBuilder sb = new StringBuilder();
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t.getMessage() != null) sb.append(t.getMessage()).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    private static final class Negativo {
+        private final String motivo;
+        private final long expira;
+
+        private Negativo(String motivo, long expira) {
+            this.motivo = motivo;
+            this.expira = expira;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Planificador dedicado para las conversiones con yt-dlp/ffmpeg.
+ * Limita la concurrencia, atiende antes el carril interactivo (stream/preview) que las descargas
+ * y rechaza rápido cuando la cola está llena en lugar de acumular hilos de Tomcat esperando.
+ */
+@Service
+public class ConversionScheduler {
+
+    private final int concurrencia;
+    private final int capacidadCola;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore esperas;
+
+    private final AtomicLong secuencia = new AtomicLong();
+    private final Map<ConversionPriority, AtomicInteger> encolados = new EnumMap<>(ConversionPriority.class);
+    // Media móvil de la duración de una conversión, para estimar el Retry-After
+    private volatile double mediaSegundos = 10;
+
+    public ConversionScheduler(
+            @Value("${musicfly.conversion.max-concurrent:0}") int maxConcurrent,
+            @Value("${musicfly.conversion.queue-capacity:32}") int capacidadCola,
+            @Value("${musicfly.conversion.max-waiting-requests:64}") int maxEsperas
+    ) {
+        this.concurrencia = maxConcurrent > 0 ? maxConcurrent : Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.capacidadCola = capacidadCola;
+        this.esperas = new Semaphore(maxEsperas);
+        for (ConversionPriority prioridad : ConversionPriority.values()) {
+            encolados.put(prioridad, new AtomicInteger());
+        }
+
+        AtomicInteger hilos = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrencia, concurrencia, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "conversion-" + hilos.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Encola una conversión en el carril indicado.
+     *
+     * @throws ConversionBusyException si el carril no admite más trabajos en cola.
+     */
+    public <T> Future<T> submit(ConversionPriority prioridad, Callable<T> tarea) {
+        AtomicInteger enCarril = encolados.get(prioridad);
+        int limite = limiteCarril(prioridad);
+
+        if (enCarril.incrementAndGet() > limite || getEncolados() > capacidadCola) {
+            enCarril.decrementAndGet();
+            throw new ConversionBusyException("Cola de conversiones llena (" + prioridad + ")", estimarRetryAfter());
+        }
+
+        TareaPriorizada<T> task = new TareaPriorizada<>(tarea, prioridad, secuencia.incrementAndGet());
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Sube de carril una tarea que sigue en cola, p. ej. una precarga que ahora espera un oyente.
+     * No hace nada si la tarea ya está en ejecución o tiene igual o más prioridad.
+     */
+    public void promote(Future<?> future, ConversionPriority prioridad) {
+        if (!(future instanceof TareaPriorizada<?> task)) return;
+        synchronized (task) {
+            if (task.prioridad.compareTo(prioridad) <= 0 || !executor.remove(task)) return;
+            encolados.get(task.prioridad).decrementAndGet();
+            task.prioridad = prioridad;
+            encolados.get(prioridad).incrementAndGet();
+            executor.getQueue().offer(task);
+        }
+    }
+
+    /**
+     * Comprueba, sin encolar nada, que el carril admite otro trabajo. Útil antes de comprometer la respuesta HTTP.
+     *
+     * @throws ConversionBusyException si el carril está lleno.
+     */
+    public void ensureCapacity(ConversionPriority prioridad) {
+        if (encolados.get(prioridad).get() >= limiteCarril(prioridad) || getEncolados() >= capacidadCola) {
+            throw new ConversionBusyException("Cola de conversiones llena (" + prioridad + ")", estimarRetryAfter());
+        }
+    }
+
+    /**
+     * Reserva un hueco para que un hilo de petición espere una conversión.
+     * Acota los hilos de Tomcat bloqueados para que el catálogo siga respondiendo.
+     */
+    public void enterWaiting() {
+        if (!esperas.tryAcquire()) {
+            throw new ConversionBusyException("Demasiadas peticiones esperando conversiones", estimarRetryAfter());
+        }
+    }
+
+    public void exitWaiting() {
+        esperas.release();
+    }
+
+    public int getConcurrencia() {
+        return concurrencia;
+    }
+
+    public int getActivas() {
+        return executor.getActiveCount();
+    }
+
+    public int getEncolados() {
+        return encolados.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public int getEncolados(ConversionPriority prioridad) {
+        return encolados.get(prioridad).get();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * El carril interactivo puede usar toda la cola; el resto solo la mitad para dejarle sitio.
+     */
+    private int limiteCarril(ConversionPriority prioridad) {
+        if (prioridad == ConversionPriority.INTERACTIVE) return capacidadCola;
+        return Math.max(1, capacidadCola / 2);
+    }
+
+    private long estimarRetryAfter() {
+        double porDelante = (getEncolados() + concurrencia) / (double) concurrencia;
+        return Math.max(1, (long) Math.ceil(mediaSegundos * porDelante));
+    }
+
+    private void registrarDuracion(long nanos) {
+        double segundos = nanos / 1_000_000_000.0;
+        mediaSegundos = mediaSegundos * 0.8 + segundos * 0.2;
+    }
+
+    private final class TareaPriorizada<T> extends FutureTask<T> implements Comparable<TareaPriorizada<?>> {
+        private volatile ConversionPriority prioridad;
+        private final long orden;
+        private final AtomicBoolean fueraDeCola = new AtomicBoolean();
+
+        private TareaPriorizada(Callable<T> callable, ConversionPriority prioridad, long orden) {
+            super(callable);
+            this.prioridad = prioridad;
+            this.orden = orden;
+        }
+
+        @Override
+        public void run() {
+            salirDeCola();
+            long inicio = System.nanoTime();
+            super.run();
+            if (!isCancelled()) registrarDuracion(System.nanoTime() - inicio);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelada = super.cancel(mayInterruptIfRunning);
+            if (cancelada && executor.remove(this)) salirDeCola();
+            return cancelada;
+        }
+
+        private void salirDeCola() {
+            synchronized (this) {
+                if (fueraDeCola.compareAndSet(false, true)) encolados.get(prioridad).decrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(TareaPriorizada<?> otra) {
+            int cmp = prioridad.compareTo(otra.prioridad);
+            return cmp != 0 ? cmp : Long.compare(orden, otra.orden);
+        }
+    }
+}
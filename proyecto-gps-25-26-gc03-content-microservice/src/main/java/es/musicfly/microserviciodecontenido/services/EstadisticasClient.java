@@ -0,0 +1,46 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+/**
+ * Cliente HTTP del microservicio de estadísticas. Si el servicio no responde se devuelve una lista vacía:
+ * quien lo usa (el precalentamiento) simplemente se salta esa ronda.
+ */
+@Component
+public class EstadisticasClient {
+
+    private final RestTemplate restTemplate;
+    private final String baseUrl;
+
+    public EstadisticasClient(RestTemplate restTemplate,
+                              @Value("${musicfly.estadisticas.url:http://Estadisticas}") String baseUrl) {
+        this.restTemplate = restTemplate;
+        this.baseUrl = baseUrl;
+    }
+
+    public List<Long> getTopVisualizaciones(int limite) {
+        return getIds("/estadisticas/visualizaciones/top?limite=" + limite);
+    }
+
+    public List<Long> getTopFavoritos(int limite) {
+        return getIds("/estadisticas/favoritos/top?limite=" + limite);
+    }
+
+    private List<Long> getIds(String ruta) {
+        try {
+            List<Long> ids = restTemplate.exchange(baseUrl + ruta, HttpMethod.GET, null,
+                    new ParameterizedTypeReference<List<Long>>() {}).getBody();
+            return ids != null ? ids : List.of();
+        } catch (RestClientException | IllegalStateException e) {
+            System.err.println("[ESTADISTICAS] No se pudo consultar " + ruta + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+}
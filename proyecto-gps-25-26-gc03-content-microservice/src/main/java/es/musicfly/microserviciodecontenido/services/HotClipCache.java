@@ -0,0 +1,193 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Capa en memoria delante de la caché de disco para los clips más escuchados (previews de pocos cientos de KB).
+ * Los bytes viven en ByteBuffers directos, fuera del heap, así que no añaden presión al GC.
+ * La admisión es por frecuencia: un clip solo entra si se ha pedido varias veces y, con la capa llena,
+ * solo desplaza a otros menos pedidos que él. Las frecuencias se dividen a la mitad periódicamente
+ * para que lo que dejó de escucharse vaya perdiendo peso.
+ */
+@Service
+public class HotClipCache {
+
+    private final long maxBytes;
+    private final long maxBytesEntrada;
+    private final int minAccesos;
+    private final int periodoEnvejecimiento;
+
+    private final Map<String, Clip> clips = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> frecuencias = new ConcurrentHashMap<>();
+    private final AtomicInteger accesosDesdeEnvejecimiento = new AtomicInteger();
+    private final AtomicLong bytesUsados = new AtomicLong();
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    public HotClipCache(
+            @Value("${musicfly.hot-cache.max-bytes:67108864}") long maxBytes,
+            @Value("${musicfly.hot-cache.max-entry-bytes:1048576}") long maxBytesEntrada,
+            @Value("${musicfly.hot-cache.min-hits:2}") int minAccesos,
+            MeterRegistry meterRegistry
+    ) {
+        this.maxBytes = maxBytes;
+        this.maxBytesEntrada = Math.min(maxBytesEntrada, Integer.MAX_VALUE);
+        this.minAccesos = minAccesos;
+        this.periodoEnvejecimiento = 10_000;
+
+        FunctionCounter.builder("musicfly.audio.hot.hits", aciertos, LongAdder::sum)
+                .description("Peticiones servidas desde la capa en memoria").register(meterRegistry);
+        FunctionCounter.builder("musicfly.audio.hot.misses", fallos, LongAdder::sum)
+                .description("Peticiones de ficheros pequeños que tuvieron que ir a disco").register(meterRegistry);
+        Gauge.builder("musicfly.audio.hot.hit.ratio", this, HotClipCache::getHitRatio)
+                .description("Proporción de aciertos de la capa en memoria").register(meterRegistry);
+        Gauge.builder("musicfly.audio.hot.bytes", bytesUsados, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("musicfly.audio.hot.entries", clips, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Devuelve el contenido del fichero desde memoria si está en la capa (o acaba de admitirse),
+     * o null si hay que leerlo de disco. El buffer devuelto es de solo lectura y propio del llamante.
+     */
+    public ByteBuffer get(Path file) throws IOException {
+        if (maxBytes <= 0) return null;
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long longitud = attrs.size();
+        if (longitud > maxBytesEntrada) return null;
+
+        String clave = file.toAbsolutePath().toString();
+        long modificado = attrs.lastModifiedTime().toMillis();
+        int frecuencia = registrarAcceso(clave);
+
+        Clip clip = clips.get(clave);
+        if (clip != null && clip.longitud == longitud && clip.modificado == modificado) {
+            aciertos.increment();
+            return clip.datos.asReadOnlyBuffer();
+        }
+        fallos.increment();
+        if (clip != null) quitar(clave, clip);
+
+        if (frecuencia < minAccesos) return null;
+        Clip nuevo = admitir(clave, file, longitud, modificado, frecuencia);
+        return nuevo != null ? nuevo.datos.asReadOnlyBuffer() : null;
+    }
+
+    public long getHits() {
+        return aciertos.sum();
+    }
+
+    public long getMisses() {
+        return fallos.sum();
+    }
+
+    public double getHitRatio() {
+        long total = aciertos.sum() + fallos.sum();
+        return total == 0 ? 0 : aciertos.sum() / (double) total;
+    }
+
+    public long getBytesUsados() {
+        return bytesUsados.get();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private int registrarAcceso(String clave) {
+        if (accesosDesdeEnvejecimiento.incrementAndGet() >= periodoEnvejecimiento) {
+            accesosDesdeEnvejecimiento.set(0);
+            envejecer();
+        }
+        return frecuencias.computeIfAbsent(clave, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void envejecer() {
+        frecuencias.entrySet().removeIf(e -> e.getValue().updateAndGet(f -> f / 2) == 0 && !clips.containsKey(e.getKey()));
+    }
+
+    private int frecuencia(String clave) {
+        AtomicInteger f = frecuencias.get(clave);
+        return f == null ? 0 : f.get();
+    }
+
+    /**
+     * Hace sitio expulsando a los clips menos pedidos, siempre que todos sean menos frecuentes que el candidato.
+     * Primero se eligen las víctimas y se lee el fichero; solo si caben y la lectura está completa se
+     * expulsan y se inserta el candidato, así que una admisión rechazada no deja la capa a medias.
+     */
+    private synchronized Clip admitir(String clave, Path file, long longitud, long modificado, int frecuencia) throws IOException {
+        Clip actual = clips.get(clave);
+        if (actual != null && actual.longitud == longitud && actual.modificado == modificado) return actual;
+        if (longitud > maxBytes) return null;
+
+        List<Map.Entry<String, Clip>> victimas = new ArrayList<>();
+        long necesarios = bytesUsados.get() + longitud - maxBytes;
+        if (necesarios > 0) {
+            // Foto de las frecuencias: siguen cambiando mientras se ordena
+            Map<String, Integer> vistas = new HashMap<>();
+            clips.keySet().forEach(c -> vistas.put(c, frecuencia(c)));
+            List<Map.Entry<String, Clip>> candidatas = new ArrayList<>(clips.entrySet());
+            candidatas.sort(Comparator.comparingInt(e -> vistas.getOrDefault(e.getKey(), 0)));
+            for (Map.Entry<String, Clip> e : candidatas) {
+                if (necesarios <= 0 || vistas.getOrDefault(e.getKey(), 0) >= frecuencia) break;
+                victimas.add(e);
+                necesarios -= e.getValue().longitud;
+            }
+            if (necesarios > 0) return null;
+        }
+
+        ByteBuffer datos = ByteBuffer.allocateDirect((int) longitud);
+        try (FileChannel canal = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (datos.hasRemaining() && canal.read(datos) >= 0) {
+                // leer hasta llenar el buffer
+            }
+        }
+        if (datos.hasRemaining()) return null;
+        datos.flip();
+
+        victimas.forEach(e -> quitar(e.getKey(), e.getValue()));
+        Clip clip = new Clip(datos, longitud, modificado);
+        clips.put(clave, clip);
+        bytesUsados.addAndGet(longitud);
+        return clip;
+    }
+
+    private void quitar(String clave, Clip clip) {
+        if (clips.remove(clave, clip)) bytesUsados.addAndGet(-clip.longitud);
+    }
+
+    private static final class Clip {
+        private final ByteBuffer datos;
+        private final long longitud;
+        private final long modificado;
+
+        private Clip(ByteBuffer datos, long longitud, long modificado) {
+            this.datos = datos;
+            this.longitud = longitud;
+            this.modificado = modificado;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Registro de conversiones en curso por clave (origen + perfil).
+ * La primera petición lanza la conversión y las concurrentes esperan el mismo resultado.
+ * La cancelación va por conteo de referencias: solo se aborta cuando se han ido todos los que esperaban.
+ */
+@Component
+public class InFlightConversions {
+
+    private final Map<String, Vuelo> vuelos = new ConcurrentHashMap<>();
+
+    /**
+     * Se une a la conversión en curso para la clave o lanza una nueva con el lanzador indicado.
+     * El ticket devuelto debe cerrarse siempre (try-with-resources) para liberar la referencia.
+     */
+    public Ticket join(String clave, Supplier<Future<Path>> lanzador) {
+        Vuelo vuelo = vuelos.compute(clave, (k, actual) -> {
+            if (actual != null && actual.retener()) return actual;
+            return new Vuelo(k, lanzador.get());
+        });
+        return new Ticket(vuelo);
+    }
+
+    public int getEnCurso() {
+        return vuelos.size();
+    }
+
+    public boolean isEnCurso(String clave) {
+        return vuelos.containsKey(clave);
+    }
+
+    private final class Vuelo {
+        private final String clave;
+        private final Future<Path> future;
+        private int referencias;
+        private boolean abandonado;
+
+        private Vuelo(String clave, Future<Path> future) {
+            this.clave = clave;
+            this.future = future;
+            this.referencias = 1;
+        }
+
+        /**
+         * Añade una referencia si la conversión sigue viva; false si ya terminó o fue abandonada.
+         */
+        private synchronized boolean retener() {
+            if (abandonado || future.isDone()) return false;
+            referencias++;
+            return true;
+        }
+
+        private void soltar() {
+            boolean abandonada;
+            synchronized (this) {
+                referencias--;
+                abandonada = referencias == 0;
+                abandonado = abandonada;
+            }
+            if (abandonada) {
+                if (!future.isDone()) {
+                    System.out.println("[CONVERSION] Sin peticiones esperando, se cancela " + clave);
+                    future.cancel(true);
+                }
+                vuelos.remove(clave, this);
+            }
+        }
+    }
+
+    public final class Ticket implements AutoCloseable {
+        private final Vuelo vuelo;
+        private boolean cerrado;
+
+        private Ticket(Vuelo vuelo) {
+            this.vuelo = vuelo;
+        }
+
+        public Future<Path> getFuture() {
+            return vuelo.future;
+        }
+
+        public boolean isDone() {
+            return vuelo.future.isDone();
+        }
+
+        /**
+         * Causa del fallo si la conversión terminó mal, o null si sigue en curso o acabó bien.
+         */
+        public Throwable getFailure() {
+            if (!vuelo.future.isDone()) return null;
+            if (vuelo.future.isCancelled()) return new CancellationException("Conversión cancelada: " + vuelo.clave);
+            try {
+                vuelo.future.get();
+                return null;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return e;
+            }
+        }
+
+        /**
+         * Espera el resultado compartido de la conversión.
+         */
+        public Path await() throws ExecutionException, InterruptedException {
+            try {
+                return vuelo.future.get();
+            } catch (CancellationException e) {
+                throw new ExecutionException("Conversión cancelada: " + vuelo.clave, e);
+            } finally {
+                if (vuelo.future.isDone()) vuelos.remove(vuelo.clave, vuelo);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (cerrado) return;
+            cerrado = true;
+            vuelo.soltar();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import es.musicfly.microserviciodecontenido.utils.YoutubeUrls;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ingesta de metadatos de las canciones nuevas: duración, portada, título y disponibilidad del vídeo.
+ * Las canciones creadas se acumulan en una cola y se resuelven por lotes con una sola ejecución de
+ * yt-dlp por lote (en un worker persistente si hay uno libre), que imprime un JSON por vídeo sin
+ * descargar nada. Los resultados se escriben con una única actualización JDBC por lotes, así que una
+ * subida masiva de cientos de canciones cuesta un arranque de yt-dlp y un viaje a la base de datos.
+ * Los datos que mandó el cliente se respetan: solo se rellenan los que faltan.
+ * Los vídeos no disponibles pasan a la caché negativa de {@link ConversionGuard}, así que no se lanza
+ * yt-dlp para convertirlos; los fallos transitorios se reintentan más tarde con una espera creciente.
+ */
+@Service
+public class MetadataIngestService {
+
+    // Solo los campos que se usan: el JSON completo de --dump-json pesa cientos de KB por vídeo
+    private static final String PLANTILLA = "%(.{id,original_url,duration,thumbnail,title,availability})j";
+    // "ERROR: [youtube] dQw4w9WgXcQ: Video unavailable"
+    private static final Pattern ERROR = Pattern.compile("^ERROR: \\[[^\\]]+\\] ([^:\\s]+): (.*)$");
+    private static final Pattern NO_DISPONIBLE = Pattern.compile(
+            "(?i)(unavailable|private video|has been removed|account .* terminated|not available|copyright)");
+    private static final String SIN_DISPONIBILIDAD = "unavailable";
+    // Tras estos intentos la canción queda pendiente hasta el siguiente arranque
+    private static final int MAX_INTENTOS = 6;
+
+    private static final String UPDATE = "UPDATE song SET "
+            + "duracion = COALESCE(duracion, ?), "
+            + "url_portada = CASE WHEN url_portada IS NULL OR url_portada = '' THEN ? ELSE url_portada END, "
+            + "nombre = CASE WHEN nombre IS NULL OR nombre = '' THEN ? ELSE nombre END, "
+            + "disponibilidad = ? "
+            + "WHERE id = ?";
+
+    private final SongRepository songRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final YtDlpBootstrap ytDlpBootstrap;
+    private final YtDlpWorkerPool ytDlpWorkerPool;
+    private final ConversionGuard conversionGuard;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final boolean enabled;
+    private final int tamanoLote;
+    private final long esperaReintentoMs;
+
+    private final Queue<Pendiente> cola = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean vaciando = new AtomicBoolean();
+    private final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metadata-ingest");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter lotes;
+    private final Counter resueltas;
+
+    public MetadataIngestService(SongRepository songRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 YtDlpBootstrap ytDlpBootstrap,
+                                 YtDlpWorkerPool ytDlpWorkerPool,
+                                 ConversionGuard conversionGuard,
+                                 @Value("${musicfly.ingest.enabled:true}") boolean enabled,
+                                 @Value("${musicfly.ingest.batch-size:200}") int tamanoLote,
+                                 @Value("${musicfly.ingest.flush-ms:2000}") long intervaloMs,
+                                 @Value("${musicfly.ingest.retry-delay-ms:30000}") long esperaReintentoMs,
+                                 MeterRegistry meterRegistry) {
+        this.songRepository = songRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.ytDlpBootstrap = ytDlpBootstrap;
+        this.ytDlpWorkerPool = ytDlpWorkerPool;
+        this.conversionGuard = conversionGuard;
+        this.enabled = enabled;
+        this.tamanoLote = Math.max(1, tamanoLote);
+        this.esperaReintentoMs = Math.max(100, esperaReintentoMs);
+
+        Gauge.builder("musicfly.ingest.queue", cola, Queue::size)
+                .description("Canciones esperando a que se resuelvan sus metadatos").register(meterRegistry);
+        this.lotes = Counter.builder("musicfly.ingest.batches")
+                .description("Ejecuciones de yt-dlp para resolver metadatos").register(meterRegistry);
+        this.resueltas = Counter.builder("musicfly.ingest.songs")
+                .description("Canciones con los metadatos resueltos").register(meterRegistry);
+
+        // Plazo máximo que espera una canción suelta a que se complete su lote
+        if (enabled) ejecutor.scheduleWithFixedDelay(this::vaciar, intervaloMs, Math.max(100, intervaloMs), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ejecutor.shutdownNow();
+    }
+
+    /**
+     * Al arrancar se encolan las canciones que nunca se resolvieron: las de antes de la ingesta y las que
+     * quedaron en la cola de una ejecución anterior o agotaron los reintentos. Las que ya se vieron no
+     * disponibles vuelven a la caché negativa, que no sobrevive a un reinicio.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void enqueuePending() {
+        if (!enabled) return;
+        List<Song> pendientes = songRepository.findByDisponibilidadIsNullAndUrlIsNotNull();
+        pendientes.forEach(this::enqueue);
+        if (!pendientes.isEmpty()) System.out.println("[INGEST] " + pendientes.size() + " canciones sin metadatos encoladas");
+        for (Song song : songRepository.findByDisponibilidad(SIN_DISPONIBILIDAD)) {
+            if (song.getUrl() != null) conversionGuard.recordUnavailable(song.getUrl(), "vídeo no disponible según sus metadatos");
+        }
+    }
+
+    /**
+     * Encola una canción nueva o que ha cambiado de vídeo. Si con ella se completa un lote se lanza sin
+     * esperar al plazo.
+     */
+    public void enqueue(Song song) {
+        if (!enabled || song.getId() == null || song.getUrl() == null || song.getUrl().isBlank()) return;
+        encolar(new Pendiente(song.getId(), song.getUrl(), 0));
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private void encolar(Pendiente pendiente) {
+        cola.add(pendiente);
+        if (cola.size() >= tamanoLote) ejecutor.execute(this::vaciar);
+    }
+
+    private void vaciar() {
+        // El plazo y un lote completo pueden coincidir: solo vacía uno
+        if (!vaciando.compareAndSet(false, true)) return;
+        try {
+            while (!cola.isEmpty() && ytDlpBootstrap.getEstado() == YtDlpBootstrap.Estado.READY) {
+                List<Pendiente> lote = new ArrayList<>(tamanoLote);
+                Pendiente pendiente;
+                while (lote.size() < tamanoLote && (pendiente = cola.poll()) != null) lote.add(pendiente);
+                try {
+                    resolver(lote);
+                } catch (RuntimeException e) {
+                    System.err.println("[INGEST] Error al resolver metadatos: " + e.getMessage());
+                    lote.forEach(this::reintentar);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            vaciando.set(false);
+        }
+    }
+
+    /**
+     * Vuelve a encolar una canción tras un fallo transitorio, con una espera que se duplica en cada intento.
+     */
+    private void reintentar(Pendiente pendiente) {
+        if (pendiente.intentos + 1 >= MAX_INTENTOS) {
+            System.err.println("[INGEST] Se agotaron los reintentos de la canción " + pendiente.idCancion);
+            return;
+        }
+        long espera = esperaReintentoMs << pendiente.intentos;
+        try {
+            ejecutor.schedule(() -> encolar(new Pendiente(pendiente.idCancion, pendiente.url, pendiente.intentos + 1)),
+                    espera, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Apagando: se recupera en el siguiente arranque
+        }
+    }
+
+    private void resolver(List<Pendiente> lote) throws InterruptedException {
+        long inicio = System.nanoTime();
+
+        // Una URL por vídeo aunque varias canciones lo compartan
+        Map<String, List<Pendiente>> porClave = new HashMap<>();
+        for (Pendiente pendiente : lote) {
+            porClave.computeIfAbsent(pendiente.clave, k -> new ArrayList<>()).add(pendiente);
+        }
+        List<String> args = new ArrayList<>(List.of(
+                "--ignore-errors", "--no-playlist", "--no-warnings", "--simulate", "--print", PLANTILLA));
+        porClave.values().forEach(p -> args.add(p.get(0).url));
+
+        Map<String, JsonNode> resultados = new HashMap<>();
+        Map<String, String> errores = new HashMap<>();
+        ejecutarYtDlp(args, linea -> leerLinea(linea, resultados, errores));
+        lotes.increment();
+
+        List<Object[]> filas = new ArrayList<>();
+        for (Map.Entry<String, List<Pendiente>> entrada : porClave.entrySet()) {
+            JsonNode json = resultados.get(entrada.getKey());
+            String error = errores.get(entrada.getKey());
+            Object[] valores;
+            if (json != null) {
+                valores = new Object[]{
+                        json.path("duration").isNumber() ? json.path("duration").asDouble() : null,
+                        texto(json, "thumbnail"),
+                        texto(json, "title"),
+                        // public/unlisted/...; algunos extractores no lo rellenan
+                        texto(json, "availability") != null ? texto(json, "availability") : "public"
+                };
+            } else if (error != null && NO_DISPONIBLE.matcher(error).find()) {
+                valores = new Object[]{null, null, null, SIN_DISPONIBILIDAD};
+                // No se lanza yt-dlp para convertir un vídeo que ya sabemos que no existe
+                conversionGuard.recordUnavailable(entrada.getValue().get(0).url, error);
+            } else {
+                // Error transitorio o desconocido: se vuelve a intentar más tarde
+                entrada.getValue().forEach(this::reintentar);
+                continue;
+            }
+            for (Pendiente pendiente : entrada.getValue()) {
+                filas.add(new Object[]{valores[0], valores[1], valores[2], valores[3], pendiente.idCancion});
+            }
+        }
+
+        if (!filas.isEmpty()) jdbcTemplate.batchUpdate(UPDATE, filas);
+        resueltas.increment(filas.size());
+        System.out.println("[INGEST] Lote de " + lote.size() + " canciones: " + filas.size() + " resueltas en "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) + " ms");
+    }
+
+    private void leerLinea(String linea, Map<String, JsonNode> resultados, Map<String, String> errores) {
+        if (linea.startsWith("{")) {
+            try {
+                JsonNode json = objectMapper.readTree(linea);
+                String id = texto(json, "id");
+                if (id != null) resultados.put(id, json);
+                String original = texto(json, "original_url");
+                if (original != null && YoutubeUrls.videoId(original) == null) resultados.put(original, json);
+            } catch (IOException e) {
+                System.err.println("[INGEST] Línea de yt-dlp no válida: " + e.getMessage());
+            }
+            return;
+        }
+        Matcher m = ERROR.matcher(linea);
+        if (m.matches()) {
+            errores.put(m.group(1), m.group(2));
+            System.err.println("[INGEST] " + linea);
+        }
+    }
+
+    /**
+     * Un worker persistente si hay alguno libre (sin arranque del intérprete); si no, un proceso suelto.
+     */
+    private void ejecutarYtDlp(List<String> args, Consumer<String> onLine) throws InterruptedException {
+        OptionalInt codigo = ytDlpWorkerPool.run(args, onLine);
+        if (codigo.isPresent()) return;
+
+        List<String> command = new ArrayList<>();
+        command.add(ytDlpBootstrap.getYtDlpPath());
+        command.addAll(args);
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo lanzar yt-dlp: " + e.getMessage(), e);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) onLine.accept(linea);
+            // Con --ignore-errors el código es distinto de 0 si falló algún vídeo: se mira cada uno
+            process.waitFor();
+        } catch (IOException e) {
+            throw new RuntimeException("Error leyendo la salida de yt-dlp: " + e.getMessage(), e);
+        } finally {
+            if (process.isAlive()) process.destroyForcibly();
+        }
+    }
+
+    private static String texto(JsonNode json, String campo) {
+        JsonNode valor = json.path(campo);
+        return valor.isTextual() && !valor.asText().isBlank() ? valor.asText() : null;
+    }
+
+    private static final class Pendiente {
+        private final Long idCancion;
+        private final String url;
+        // ID del vídeo para YouTube (así viene en la salida y en los errores); la URL tal cual en otros sitios
+        private final String clave;
+        private final int intentos;
+
+        private Pendiente(Long idCancion, String url, int intentos) {
+            this.idCancion = idCancion;
+            this.url = url;
+            this.intentos = intentos;
+            String videoId = YoutubeUrls.videoId(url);
+            this.clave = videoId != null ? videoId : url;
+        }
+    }
+}
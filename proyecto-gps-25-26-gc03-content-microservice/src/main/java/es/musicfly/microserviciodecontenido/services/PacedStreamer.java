@@ -0,0 +1,254 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.DAO.SongFeatures;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Envío a ritmo controlado de los streams de audio: una ráfaga inicial de unos segundos de audio para que
+ * el reproductor arranque enseguida y después un múltiplo del bitrate de la pista. Como la mayoría de
+ * oyentes salta de canción a los pocos segundos, no se gasta ancho de banda en enviar canciones enteras
+ * que nadie llega a escuchar, y las descargas no saturan la red del nodo a ráfagas.
+ * Las escrituras son no bloqueantes (Servlet async + {@link WriteListener}): una conexión en espera no
+ * ocupa ningún hilo; un único temporizador reanuda los envíos cuando vuelve a haber cupo.
+ */
+@Service
+public class PacedStreamer {
+
+    private final boolean enabled;
+    private final double burstSegundos;
+    private final double multiplicador;
+    private final long bytesPorSegundoPorDefecto;
+    private final int tamanoTrozo;
+    private final SeekIndexService seekIndexService;
+    private final SongFeaturesService songFeaturesService;
+
+    private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pacing-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger activos = new AtomicInteger();
+    private final Counter bytesEnviados;
+    private final Counter abandonados;
+
+    public PacedStreamer(
+            @Value("${musicfly.pacing.enabled:true}") boolean enabled,
+            @Value("${musicfly.pacing.burst-seconds:10}") double burstSegundos,
+            @Value("${musicfly.pacing.rate-multiplier:1.5}") double multiplicador,
+            @Value("${musicfly.pacing.default-kbps:192}") int kbpsPorDefecto,
+            @Value("${musicfly.pacing.chunk-bytes:16384}") int tamanoTrozo,
+            SeekIndexService seekIndexService,
+            SongFeaturesService songFeaturesService,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.burstSegundos = burstSegundos;
+        this.multiplicador = Math.max(1, multiplicador);
+        this.bytesPorSegundoPorDefecto = kbpsPorDefecto * 1000L / 8;
+        this.tamanoTrozo = Math.max(1024, tamanoTrozo);
+        this.seekIndexService = seekIndexService;
+        this.songFeaturesService = songFeaturesService;
+
+        Gauge.builder("musicfly.pacing.active", activos, AtomicInteger::get)
+                .description("Streams enviándose a ritmo controlado").register(meterRegistry);
+        this.bytesEnviados = Counter.builder("musicfly.pacing.bytes")
+                .description("Bytes enviados en streams a ritmo controlado").baseUnit("bytes").register(meterRegistry);
+        this.abandonados = Counter.builder("musicfly.pacing.aborted")
+                .description("Streams a ritmo controlado que el cliente cerró antes del final").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        temporizador.shutdownNow();
+    }
+
+    /**
+     * Bitrate de la pista en bytes por segundo (tamaño entre duración), o 0 si el envío a ritmo está desactivado.
+     * La duración es la medida en el propio audio (tramas del MP3 o análisis de características), nunca la
+     * que envió el cliente al crear la canción; sin ninguna de las dos se usa el bitrate por defecto.
+     */
+    public long bitrate(Path audio, Long idCancion) throws IOException {
+        if (!enabled) return 0;
+        OptionalLong duracionMs = seekIndexService.duracionMs(audio);
+        double duracionSegundos = duracionMs.isPresent() ? duracionMs.getAsLong() / 1000.0
+                : songFeaturesService.getFeatures(idCancion).map(SongFeatures::getDuracion).orElse(0.0);
+        if (duracionSegundos <= 0) return bytesPorSegundoPorDefecto;
+        return Math.max(1, (long) (Files.size(audio) / duracionSegundos));
+    }
+
+    /**
+     * Pasa la petición a modo asíncrono y envía el tramo [inicio, inicio + cuenta) del fichero, o de su copia
+     * en memoria si la hay. Las cabeceras de la respuesta deben estar ya puestas.
+     */
+    public void start(HttpServletRequest request, HttpServletResponse response, Path file, ByteBuffer memoria,
+                      long inicio, long cuenta, long bytesPorSegundo) throws IOException {
+        FileChannel canal = memoria == null ? FileChannel.open(file, StandardOpenOption.READ) : null;
+        AsyncContext async = request.startAsync(request, response);
+        // Margen amplio sobre lo que debería durar el envío; un cliente que no lee nada acaba cortado
+        long previsto = cuenta * 1000 / Math.max(1, (long) (bytesPorSegundo * multiplicador));
+        async.setTimeout(2 * previsto + 60_000);
+
+        Envio envio = new Envio(async, response.getOutputStream(), canal, memoria, inicio, cuenta, bytesPorSegundo);
+        activos.incrementAndGet();
+        async.addListener(envio);
+        response.getOutputStream().setWriteListener(envio);
+    }
+
+    public int getActivos() {
+        return activos.get();
+    }
+
+    /**
+     * Un stream en curso. El cupo disponible crece con el tiempo (ráfaga inicial + ritmo × segundos
+     * transcurridos) y cada escritura lo consume; sin cupo se programa la reanudación y se suelta el hilo.
+     */
+    private final class Envio implements WriteListener, AsyncListener {
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final FileChannel canal;
+        private final ByteBuffer memoria;
+        private final long rafaga;
+        private final double ritmo;
+        private final long comienzo = System.nanoTime();
+        private final byte[] trozo = new byte[tamanoTrozo];
+
+        private long posicion;
+        private long restantes;
+        private long enviados;
+        private boolean terminado;
+        private ScheduledFuture<?> reanudacion;
+
+        private Envio(AsyncContext async, ServletOutputStream out, FileChannel canal, ByteBuffer memoria,
+                      long inicio, long cuenta, long bytesPorSegundo) {
+            this.async = async;
+            this.out = out;
+            this.canal = canal;
+            this.memoria = memoria;
+            this.posicion = inicio;
+            this.restantes = cuenta;
+            this.rafaga = (long) (bytesPorSegundo * burstSegundos);
+            this.ritmo = bytesPorSegundo * multiplicador;
+        }
+
+        @Override
+        public void onWritePossible() {
+            bombear();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminar(true);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            terminar(restantes > 0);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            terminar(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            terminar(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * Escribe mientras el socket admita datos sin bloquear y quede cupo. Lo llaman el contenedor
+         * (socket listo) y el temporizador (cupo renovado); nunca a la vez.
+         */
+        private synchronized void bombear() {
+            if (terminado) return;
+            reanudacion = null;
+            try {
+                while (out.isReady()) {
+                    if (restantes == 0) {
+                        terminar(false);
+                        return;
+                    }
+
+                    long transcurridoNs = System.nanoTime() - comienzo;
+                    long cupo = rafaga + (long) (ritmo * transcurridoNs / 1e9) - enviados;
+                    int n = (int) Math.min(trozo.length, restantes);
+                    if (cupo < n) {
+                        // Cuándo habrá cupo para el siguiente trozo completo
+                        long esperaNs = (long) ((enviados + n - rafaga) / ritmo * 1e9) - transcurridoNs;
+                        reanudacion = temporizador.schedule(this::bombear, Math.max(1, esperaNs / 1_000_000), TimeUnit.MILLISECONDS);
+                        return;
+                    }
+
+                    leer(n);
+                    out.write(trozo, 0, n);
+                    posicion += n;
+                    restantes -= n;
+                    enviados += n;
+                    bytesEnviados.increment(n);
+                }
+                // Socket lleno: el contenedor volverá a llamar a onWritePossible cuando se vacíe
+            } catch (IOException | IllegalStateException e) {
+                // Cliente desconectado
+                terminar(true);
+            }
+        }
+
+        private void leer(int n) throws IOException {
+            if (memoria != null) {
+                memoria.get((int) posicion, trozo, 0, n);
+                return;
+            }
+            ByteBuffer destino = ByteBuffer.wrap(trozo, 0, n);
+            while (destino.hasRemaining()) {
+                if (canal.read(destino, posicion + destino.position()) < 0) throw new IOException("Fichero truncado");
+            }
+        }
+
+        private synchronized void terminar(boolean abandonado) {
+            if (terminado) return;
+            terminado = true;
+            activos.decrementAndGet();
+            if (abandonado) abandonados.increment();
+            if (reanudacion != null) reanudacion.cancel(false);
+            try {
+                if (canal != null) canal.close();
+            } catch (IOException ignored) {
+                // Solo lectura: nada que perder
+            }
+            try {
+                async.complete();
+            } catch (IllegalStateException ignored) {
+                // Ya completado
+            }
+        }
+    }
+}
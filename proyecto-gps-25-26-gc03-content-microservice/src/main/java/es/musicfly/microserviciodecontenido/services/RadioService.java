@@ -0,0 +1,415 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.DAO.Genre;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.models.DAO.SongFeatures;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emisoras de radio por género: un stream MP3 sin fin con las canciones del género que ya están en caché.
+ * Cada emisora lee sus pistas de disco una sola vez, al ritmo de reproducción, y las deja en un buffer
+ * circular en memoria del que leen todos sus oyentes, cada uno con su propia posición. El coste de disco
+ * y de lectura es el de un único oyente; por oyente solo queda copiar a su socket.
+ * El productor nunca espera a nadie: un oyente que se queda más atrás de lo que cabe en el buffer salta
+ * hacia delante (el decodificador MP3 se resincroniza en la siguiente trama), como en una radio de verdad.
+ * Las escrituras son no bloqueantes, igual que en {@link PacedStreamer}: un oyente no ocupa ningún hilo.
+ */
+@Service
+public class RadioService {
+
+    private final SongRepository songRepository;
+    private final YoutubeConversionService youtubeConversionService;
+    private final AudioCacheService audioCacheService;
+    private final SongUploadService songUploadService;
+    private final SeekIndexService seekIndexService;
+    private final SongFeaturesService songFeaturesService;
+
+    private final int tamanoBuffer;
+    private final int tamanoTrozo;
+    private final double rafagaSegundos;
+    private final long bytesPorSegundoPorDefecto;
+    private final long inactividadNs;
+
+    private final Map<Genre, Emisora> emisoras = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService temporizador;
+    private final long tickMs;
+    private final Counter bytesLeidos;
+    private final Counter saltos;
+
+    public RadioService(
+            SongRepository songRepository,
+            YoutubeConversionService youtubeConversionService,
+            AudioCacheService audioCacheService,
+            SongUploadService songUploadService,
+            SeekIndexService seekIndexService,
+            SongFeaturesService songFeaturesService,
+            @Value("${musicfly.radio.buffer-bytes:1048576}") int tamanoBuffer,
+            @Value("${musicfly.radio.chunk-bytes:8192}") int tamanoTrozo,
+            @Value("${musicfly.radio.burst-seconds:4}") double rafagaSegundos,
+            @Value("${musicfly.radio.default-kbps:192}") int kbpsPorDefecto,
+            @Value("${musicfly.radio.tick-ms:100}") long tickMs,
+            @Value("${musicfly.radio.idle-ms:30000}") long inactividadMs,
+            @Value("${musicfly.radio.threads:2}") int hilos,
+            MeterRegistry meterRegistry
+    ) {
+        this.songRepository = songRepository;
+        this.youtubeConversionService = youtubeConversionService;
+        this.audioCacheService = audioCacheService;
+        this.songUploadService = songUploadService;
+        this.seekIndexService = seekIndexService;
+        this.songFeaturesService = songFeaturesService;
+        this.tamanoTrozo = Math.max(1024, tamanoTrozo);
+        // El buffer tiene que dar para varios trozos: el margen de seguridad frente al productor son dos
+        this.tamanoBuffer = Math.max(8 * this.tamanoTrozo, tamanoBuffer);
+        this.rafagaSegundos = Math.max(0, rafagaSegundos);
+        this.bytesPorSegundoPorDefecto = kbpsPorDefecto * 1000L / 8;
+        this.tickMs = Math.max(10, tickMs);
+        this.inactividadNs = TimeUnit.MILLISECONDS.toNanos(inactividadMs);
+
+        this.temporizador = Executors.newScheduledThreadPool(Math.max(1, hilos), r -> {
+            Thread thread = new Thread(r, "radio");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("musicfly.radio.stations", emisoras, Map::size)
+                .description("Emisoras de radio emitiendo").register(meterRegistry);
+        Gauge.builder("musicfly.radio.listeners", this, RadioService::getOyentes)
+                .description("Oyentes conectados a alguna emisora").register(meterRegistry);
+        this.bytesLeidos = Counter.builder("musicfly.radio.bytes")
+                .description("Bytes de audio leídos de disco por las emisoras").baseUnit("bytes").register(meterRegistry);
+        this.saltos = Counter.builder("musicfly.radio.skips")
+                .description("Veces que un oyente lento tuvo que saltar hacia delante").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        temporizador.shutdownNow();
+        emisoras.values().forEach(Emisora::cerrarPista);
+    }
+
+    /**
+     * Conecta la petición a la emisora del género, arrancándola si no estaba emitiendo, y la pasa a modo
+     * asíncrono. Devuelve false, sin tocar la respuesta, si el género no tiene ninguna canción en caché.
+     */
+    public synchronized boolean listen(Genre genero, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Emisora emisora = emisoras.get(genero);
+        if (emisora == null) {
+            emisora = new Emisora(genero);
+            if (!emisora.abrirSiguiente()) return false;
+            emisoras.put(genero, emisora);
+            emisora.arrancar();
+            System.out.println("[RADIO] Emisora " + genero + " en marcha");
+        }
+
+        response.setContentType(AudioFormat.MP3.getMimeType());
+        response.setHeader("Cache-Control", "no-cache, no-store");
+        AsyncContext async = request.startAsync(request, response);
+        // Stream sin fin: solo termina cuando el cliente se desconecta
+        async.setTimeout(0);
+
+        Oyente oyente = new Oyente(emisora, async, response.getOutputStream());
+        async.addListener(oyente);
+        response.getOutputStream().setWriteListener(oyente);
+        emisora.oyentes.add(oyente);
+        return true;
+    }
+
+    public int getOyentes() {
+        return emisoras.values().stream().mapToInt(e -> e.oyentes.size()).sum();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * La emisora se para tras un rato sin oyentes. Se comprueba bajo el mismo cerrojo que {@link #listen}
+     * para que nadie se conecte a una emisora que se está parando.
+     */
+    private synchronized boolean parar(Emisora emisora) {
+        if (!emisora.oyentes.isEmpty()) return false;
+        emisoras.remove(emisora.genero, emisora);
+        emisora.tarea.cancel(false);
+        emisora.cerrarPista();
+        System.out.println("[RADIO] Emisora " + emisora.genero + " parada por falta de oyentes");
+        return true;
+    }
+
+    /**
+     * Fichero MP3 de la canción completa si ya está disponible sin convertir nada, o null.
+     */
+    private Path ficheroEnCache(Song song) {
+        if (song.getFuenteLocal() != null) {
+            Path original = songUploadService.resolve(song);
+            if (original == null || AudioFormat.fromFichero(original.getFileName().toString()) != AudioFormat.MP3) return null;
+            return Files.isRegularFile(original) ? original : null;
+        }
+        if (song.getUrl() == null || song.getUrl().isBlank()) return null;
+        return audioCacheService.lookup(youtubeConversionService.cacheKey(song, AudioProfile.FULL)).orElse(null);
+    }
+
+    /**
+     * Una emisora: el productor (tick periódico) lee la pista actual al ritmo de su bitrate y la escribe
+     * en el buffer circular; {@code escrito} es el total de bytes emitidos desde que arrancó. El byte
+     * absoluto {@code p} está en {@code anillo[p % tamano]} mientras {@code p >= escrito - tamano}.
+     */
+    private final class Emisora {
+        private final Genre genero;
+        private final byte[] anillo = new byte[tamanoBuffer];
+        private final Set<Oyente> oyentes = ConcurrentHashMap.newKeySet();
+        private volatile long escrito;
+        private volatile long bytesPorSegundo = bytesPorSegundoPorDefecto;
+        private ScheduledFuture<?> tarea;
+
+        // Estado del productor: solo lo toca el tick (y listen antes de arrancar)
+        private List<Song> lista = List.of();
+        private int siguiente;
+        private FileChannel canal;
+        private long posicionPista;
+        private double cupo;
+        private long ultimoTick;
+        private long sinOyentesDesde;
+        private long proximoIntento;
+
+        private Emisora(Genre genero) {
+            this.genero = genero;
+        }
+
+        private void arrancar() {
+            ultimoTick = System.nanoTime();
+            tarea = temporizador.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void tick() {
+            long ahora = System.nanoTime();
+            try {
+                if (oyentes.isEmpty()) {
+                    if (sinOyentesDesde == 0) sinOyentesDesde = ahora;
+                    else if (ahora - sinOyentesDesde > inactividadNs && parar(this)) return;
+                } else {
+                    sinOyentesDesde = 0;
+                }
+
+                // Tras un parón (GC, máquina cargada) no se emite de golpe más de un segundo de audio
+                cupo = Math.min(cupo + bytesPorSegundo * (ahora - ultimoTick) / 1e9, bytesPorSegundo);
+                ultimoTick = ahora;
+                producir();
+            } catch (IOException | RuntimeException e) {
+                // Un error no puede parar el tick: se pasa a la siguiente pista
+                System.err.println("[RADIO] Error en la emisora " + genero + ": " + e.getMessage());
+                cerrarPista();
+            }
+
+            for (Oyente oyente : oyentes) {
+                oyente.bombear();
+            }
+        }
+
+        private void producir() throws IOException {
+            while (cupo >= 1) {
+                if (canal == null && !abrirSiguiente()) {
+                    // Sin pistas disponibles: silencio hasta el próximo intento
+                    cupo = 0;
+                    return;
+                }
+                long absoluto = escrito;
+                int posicion = (int) (absoluto % anillo.length);
+                // Nunca más de un trozo por escritura: es el margen que comprueban los oyentes al copiar
+                int n = (int) Math.min(Math.min((long) cupo, tamanoTrozo), anillo.length - posicion);
+                int leidos = canal.read(ByteBuffer.wrap(anillo, posicion, n), posicionPista);
+                if (leidos <= 0) {
+                    cerrarPista();
+                    continue;
+                }
+                posicionPista += leidos;
+                cupo -= leidos;
+                escrito = absoluto + leidos;
+                bytesLeidos.increment(leidos);
+            }
+        }
+
+        /**
+         * Abre la siguiente canción del género que esté en caché. Al acabar la lista se vuelve a pedir al
+         * catálogo, así que las canciones nuevas entran en la siguiente vuelta.
+         */
+        private boolean abrirSiguiente() throws IOException {
+            if (System.nanoTime() < proximoIntento) return false;
+            boolean recargada = false;
+            while (true) {
+                if (siguiente >= lista.size()) {
+                    if (recargada) break;
+                    lista = songRepository.findByGeneroOrderByIdAsc(genero);
+                    siguiente = 0;
+                    recargada = true;
+                    if (lista.isEmpty()) break;
+                }
+                Song song = lista.get(siguiente++);
+                Path fichero = ficheroEnCache(song);
+                if (fichero == null) continue;
+
+                FileChannel abierto;
+                try {
+                    abierto = FileChannel.open(fichero, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    // Desalojado de la caché entre la búsqueda y la apertura
+                    continue;
+                }
+                canal = abierto;
+                // Se salta la etiqueta ID3 del principio: en mitad del stream solo deben ir tramas
+                posicionPista = seekIndexService.offset(fichero, 0).orElse(0);
+                long tamano = canal.size();
+                // Duración medida en el propio audio: la que envió el cliente al crear la canción puede no cuadrar
+                OptionalLong duracionMs = seekIndexService.duracionMs(fichero);
+                double duracion = duracionMs.isPresent() ? duracionMs.getAsLong() / 1000.0
+                        : songFeaturesService.getFeatures(song.getId()).map(SongFeatures::getDuracion).orElse(0.0);
+                bytesPorSegundo = duracion <= 0 ? bytesPorSegundoPorDefecto : Math.max(1, (long) (tamano / duracion));
+                return true;
+            }
+            proximoIntento = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            return false;
+        }
+
+        private void cerrarPista() {
+            if (canal == null) return;
+            try {
+                canal.close();
+            } catch (IOException ignored) {
+                // Solo lectura: nada que perder
+            }
+            canal = null;
+        }
+
+        /**
+         * Posición por la que empieza un oyente nuevo o que ha saltado: unos segundos por detrás del
+         * directo, para que el reproductor arranque con algo de colchón.
+         */
+        private long inicioOyente() {
+            long rafaga = Math.min((long) (bytesPorSegundo * rafagaSegundos), anillo.length - 2L * tamanoTrozo);
+            return Math.max(0, escrito - rafaga);
+        }
+    }
+
+    /**
+     * Un oyente conectado: solo guarda su posición en el buffer de la emisora. Lo bombean el contenedor
+     * (socket listo) y el tick de la emisora (datos nuevos); nunca a la vez.
+     */
+    private final class Oyente implements WriteListener, AsyncListener {
+        private final Emisora emisora;
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final byte[] trozo = new byte[tamanoTrozo];
+        private long posicion;
+        private boolean terminado;
+
+        private Oyente(Emisora emisora, AsyncContext async, ServletOutputStream out) {
+            this.emisora = emisora;
+            this.async = async;
+            this.out = out;
+            this.posicion = emisora.inicioOyente();
+        }
+
+        @Override
+        public void onWritePossible() {
+            bombear();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminar();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            terminar();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            terminar();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            terminar();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private synchronized void bombear() {
+            if (terminado) return;
+            byte[] anillo = emisora.anillo;
+            try {
+                while (out.isReady()) {
+                    long fin = emisora.escrito;
+                    if (fin - posicion > anillo.length - 2L * tamanoTrozo) {
+                        // El productor está a punto de pisar lo que falta por enviar: se salta hacia delante
+                        posicion = emisora.inicioOyente();
+                        saltos.increment();
+                        continue;
+                    }
+                    if (posicion >= fin) return; // Al día: el siguiente tick trae más
+
+                    int n = (int) Math.min(trozo.length, fin - posicion);
+                    int desde = (int) (posicion % anillo.length);
+                    int primero = Math.min(n, anillo.length - desde);
+                    System.arraycopy(anillo, desde, trozo, 0, primero);
+                    System.arraycopy(anillo, 0, trozo, primero, n - primero);
+                    // Si mientras se copiaba el productor ha dado la vuelta, la copia no vale
+                    if (emisora.escrito - posicion > anillo.length - tamanoTrozo) continue;
+
+                    out.write(trozo, 0, n);
+                    posicion += n;
+                }
+                // Socket lleno: el contenedor volverá a llamar a onWritePossible cuando se vacíe
+            } catch (IOException | IllegalStateException e) {
+                // Cliente desconectado
+                terminar();
+            }
+        }
+
+        private synchronized void terminar() {
+            if (terminado) return;
+            terminado = true;
+            emisora.oyentes.remove(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException ignored) {
+                // Ya completado
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import es.musicfly.microserviciodecontenido.exceptions.SourceUnavailableException;
+import es.musicfly.microserviciodecontenido.kafka.ConversionProducer;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.views.DTO.ConversionRequestDTO;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversiones delegadas a los nodos worker: se publica la petición en conversiones.v1 y se espera a que
+ * el resultado aparezca en el almacén compartido de renditions (el directorio de la caché de audio montado
+ * en todos los nodos). Así los nodos que atienden peticiones no necesitan yt-dlp ni ffmpeg.
+ */
+@Service
+public class RemoteConversions {
+
+    // Margen para relojes algo desfasados entre nodos al comparar fechas de ficheros compartidos
+    private static final long MARGEN_RELOJ_MS = 2000;
+
+    private final ConversionProducer conversionProducer;
+    private final AudioCacheService audioCacheService;
+    private final ConversionGuard conversionGuard;
+    private final long timeoutMs;
+
+    private final Map<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+    // Hilo propio para el sondeo: es lo único que completa las conversiones remotas, así que no puede
+    // quedarse detrás de otras tareas del planificador compartido de Spring que las estén esperando
+    private final ScheduledExecutorService sondeo = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "remote-conversions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RemoteConversions(ConversionProducer conversionProducer,
+                             AudioCacheService audioCacheService,
+                             ConversionGuard conversionGuard,
+                             @Value("${musicfly.conversion.remote-timeout-ms:300000}") long timeoutMs,
+                             @Value("${musicfly.conversion.remote-poll-ms:500}") long intervaloMs) {
+        this.conversionProducer = conversionProducer;
+        this.audioCacheService = audioCacheService;
+        this.conversionGuard = conversionGuard;
+        this.timeoutMs = timeoutMs;
+
+        long intervalo = Math.max(50, intervaloMs);
+        sondeo.scheduleWithFixedDelay(() -> {
+            try {
+                comprobarPendientes();
+            } catch (RuntimeException e) {
+                // Una excepción cancelaría las siguientes ejecuciones del sondeo
+                System.err.println("[CONVERSION] Error revisando las conversiones remotas: " + e.getMessage());
+            }
+        }, intervalo, intervalo, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sondeo.shutdownNow();
+    }
+
+    /**
+     * Publica la petición y devuelve un future que se completa cuando un worker deja la rendition en el almacén.
+     * Las peticiones repetidas de la misma clave ya las agrupa {@link InFlightConversions}.
+     */
+    public CompletableFuture<Path> submit(String clave, Song song, AudioProfile profile, ConversionPriority prioridad) {
+        Pendiente pendiente = new Pendiente(song, System.currentTimeMillis());
+        Pendiente anterior = pendientes.putIfAbsent(clave, pendiente);
+        if (anterior != null && !anterior.future.isDone()) return anterior.future;
+        if (anterior != null) pendientes.put(clave, pendiente);
+
+        ConversionRequestDTO peticion = ConversionRequestDTO.builder()
+                .clave(clave)
+                .idCancion(song.getId())
+                .url(song.getUrl())
+                .perfil(profile.getNombre())
+                .formato(profile.getFormato().name())
+                .prioridad(prioridad.name())
+                .fechaSolicitud(LocalDateTime.now().toString())
+                .build();
+
+        conversionProducer.enviarConversion(peticion).whenComplete((resultado, error) -> {
+            if (error == null) return;
+            pendientes.remove(clave, pendiente);
+            pendiente.future.completeExceptionally(new ConversionUnavailableException(
+                    "No se pudo publicar la conversión: " + error.getMessage(), 30));
+        });
+        return pendiente.future;
+    }
+
+    public int getPendientes() {
+        return pendientes.size();
+    }
+
+    /**
+     * Revisa el almacén compartido: completa las conversiones que ya están, propaga los fallos que han
+     * marcado los workers y da por perdidas las que superan el timeout (p. ej. sin workers en marcha).
+     */
+    public void comprobarPendientes() {
+        long ahora = System.currentTimeMillis();
+        pendientes.forEach((clave, pendiente) -> {
+            if (pendiente.future.isDone()) {
+                // Cancelada porque ya no la esperaba nadie
+                pendientes.remove(clave, pendiente);
+                return;
+            }
+
+            Optional<Path> resultado = audioCacheService.refresh(clave);
+            if (resultado.isPresent()) {
+                conversionGuard.recordSuccess();
+                terminar(clave, pendiente, null, resultado.get());
+                return;
+            }
+
+            Optional<String> fallo = audioCacheService.getFailure(clave, pendiente.publicado - MARGEN_RELOJ_MS);
+            if (fallo.isPresent()) {
+                RuntimeException error = new RuntimeException(fallo.get());
+                ConversionGuard.Fallo tipo = conversionGuard.recordFailure(pendiente.song, error);
+                terminar(clave, pendiente, tipo == ConversionGuard.Fallo.PERMANENTE
+                        ? new SourceUnavailableException(fallo.get()) : error, null);
+                return;
+            }
+
+            if (ahora - pendiente.publicado > timeoutMs) {
+                RuntimeException error = new ConversionUnavailableException(
+                        "Ningún worker de conversión ha respondido a tiempo", 30);
+                conversionGuard.recordFailure(pendiente.song, error);
+                terminar(clave, pendiente, error, null);
+            }
+        });
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private void terminar(String clave, Pendiente pendiente, RuntimeException error, Path resultado) {
+        pendientes.remove(clave, pendiente);
+        if (error != null) pendiente.future.completeExceptionally(error);
+        else pendiente.future.complete(resultado);
+    }
+
+    private static final class Pendiente {
+        private final Song song;
+        private final long publicado;
+        private final CompletableFuture<Path> future = new CompletableFuture<>();
+
+        private Pendiente(Song song, long publicado) {
+            this.song = song;
+            this.publicado = publicado;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.views.DTO.RenditionJobDTO;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Trabajos asíncronos de conversión: encolan la rendition en el carril de segundo plano y se consultan por ID.
+ * El estado vive en memoria con un historial acotado y se deduce de la misma caché y del registro
+ * de conversiones en curso que usan los endpoints síncronos, así que no ocupa hilos mientras espera.
+ */
+@Service
+public class RenditionJobService {
+
+    public enum Estado { QUEUED, RUNNING, DONE, FAILED }
+
+    private final YoutubeConversionService youtubeConversionService;
+    private final AudioCacheService audioCacheService;
+    private final Map<String, Trabajo> trabajos;
+
+    public RenditionJobService(YoutubeConversionService youtubeConversionService,
+                               AudioCacheService audioCacheService,
+                               @Value("${musicfly.jobs.history:500}") int historial) {
+        this.youtubeConversionService = youtubeConversionService;
+        this.audioCacheService = audioCacheService;
+        this.trabajos = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Trabajo> eldest) {
+                if (size() <= historial) return false;
+                eldest.getValue().liberar();
+                return true;
+            }
+        };
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        trabajos.values().forEach(Trabajo::liberar);
+        trabajos.clear();
+    }
+
+    /**
+     * Encola la conversión de la canción con el perfil indicado y devuelve el trabajo creado.
+     */
+    public RenditionJobDTO enqueue(Song song, AudioProfile profile) {
+        // Con audio subido la canción completa es el propio fichero: no hay nada que convertir
+        String clave = youtubeConversionService.isOriginal(song, profile) ? null : youtubeConversionService.cacheKey(song, profile);
+        InFlightConversions.Ticket ticket = youtubeConversionService.requestRendition(song, profile, ConversionPriority.BACKGROUND);
+
+        Trabajo trabajo = new Trabajo(UUID.randomUUID().toString(), song.getId(), profile, clave, ticket, LocalDateTime.now());
+        synchronized (this) {
+            trabajos.put(trabajo.id, trabajo);
+        }
+        return toDTO(trabajo);
+    }
+
+    public Optional<RenditionJobDTO> getJob(Long idCancion, String idTrabajo) {
+        return find(idCancion, idTrabajo).map(this::toDTO);
+    }
+
+    /**
+     * Abandona el trabajo. La conversión solo se cancela si ninguna otra petición la está esperando.
+     */
+    public boolean cancel(Long idCancion, String idTrabajo) {
+        Optional<Trabajo> trabajo = find(idCancion, idTrabajo);
+        trabajo.ifPresent(t -> {
+            t.liberar();
+            synchronized (this) {
+                trabajos.remove(t.id);
+            }
+        });
+        return trabajo.isPresent();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private synchronized Optional<Trabajo> find(Long idCancion, String idTrabajo) {
+        Trabajo trabajo = trabajos.get(idTrabajo);
+        if (trabajo == null || !trabajo.idCancion.equals(idCancion)) return Optional.empty();
+        return Optional.of(trabajo);
+    }
+
+    private RenditionJobDTO toDTO(Trabajo trabajo) {
+        Estado estado;
+        Double progreso = null;
+        String error = null;
+
+        if (trabajo.clave == null || audioCacheService.contains(trabajo.clave)) {
+            estado = Estado.DONE;
+            progreso = 100.0;
+            trabajo.liberar();
+        } else if (trabajo.ticket == null) {
+            // Estaba en caché al encolar pero ya se expulsó: hay que volver a pedirlo
+            estado = Estado.FAILED;
+            error = "La conversión ya no está en caché";
+        } else if (trabajo.ticket.isDone()) {
+            Throwable fallo = trabajo.ticket.getFailure();
+            estado = fallo == null ? Estado.DONE : Estado.FAILED;
+            progreso = fallo == null ? 100.0 : null;
+            error = fallo == null ? null : fallo.getMessage();
+            trabajo.liberar();
+        } else {
+            progreso = youtubeConversionService.getProgress(trabajo.clave).orElse(null);
+            estado = progreso == null ? Estado.QUEUED : Estado.RUNNING;
+        }
+
+        String ruta = trabajo.profile.getFormato() == AudioFormat.HLS ? "hls/master.m3u8"
+                : trabajo.profile.getNombre().equals(AudioProfile.PREVIEW.getNombre()) ? "preview" : "stream";
+        return RenditionJobDTO.builder()
+                .idTrabajo(trabajo.id)
+                .idCancion(trabajo.idCancion)
+                .perfil(trabajo.profile.getFormato() == AudioFormat.HLS ? "hls" : trabajo.profile.getNombre())
+                .estado(estado.name())
+                .progreso(progreso)
+                .url(estado == Estado.DONE ? "/songs/" + trabajo.idCancion + "/" + ruta : null)
+                .error(error)
+                .fechaCreacion(trabajo.creado.toString())
+                .build();
+    }
+
+    private static final class Trabajo {
+        private final String id;
+        private final Long idCancion;
+        private final AudioProfile profile;
+        private final String clave;
+        private final InFlightConversions.Ticket ticket;
+        private final LocalDateTime creado;
+
+        private Trabajo(String id, Long idCancion, AudioProfile profile, String clave,
+                        InFlightConversions.Ticket ticket, LocalDateTime creado) {
+            this.id = id;
+            this.idCancion = idCancion;
+            this.profile = profile;
+            this.clave = clave;
+            this.ticket = ticket;
+            this.creado = creado;
+        }
+
+        private void liberar() {
+            if (ticket != null) ticket.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Espacio temporal de las conversiones (~/.musicfly_temp).
+ * Cada conversión trabaja en su propio directorio, que se borra entero al cerrarlo, salga bien o mal.
+ * Antes de abrir uno se comprueban la cuota y el espacio libre del disco: si no hay sitio se responde
+ * 503 en lugar de lanzar una conversión que fallaría a medias. Un conserje periódico borra lo que quede
+ * huérfano (p. ej. tras una caída del proceso).
+ */
+@Service
+public class ScratchSpace {
+
+    private static final String PREFIJO = "work_";
+
+    private final Path directorio;
+    private final long maxBytes;
+    private final long minLibres;
+    private final long edadHuerfanos;
+
+    private final Set<Path> activos = ConcurrentHashMap.newKeySet();
+    private final AtomicLong bytesUsados = new AtomicLong();
+    private final AtomicLong bytesRecuperados = new AtomicLong();
+
+    public ScratchSpace(
+            @Value("${musicfly.scratch.dir:${user.home}/.musicfly_temp}") String directorio,
+            @Value("${musicfly.scratch.max-bytes:5368709120}") long maxBytes,
+            @Value("${musicfly.scratch.min-free-bytes:1073741824}") long minLibres,
+            @Value("${musicfly.scratch.orphan-age-ms:600000}") long edadHuerfanos,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        this.directorio = Paths.get(directorio);
+        this.maxBytes = maxBytes;
+        this.minLibres = minLibres;
+        this.edadHuerfanos = edadHuerfanos;
+        Files.createDirectories(this.directorio);
+
+        Gauge.builder("musicfly.scratch.bytes", bytesUsados, AtomicLong::get)
+                .description("Bytes ocupados en el espacio temporal de conversiones").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("musicfly.scratch.workspaces", activos, Set::size)
+                .description("Directorios de trabajo abiertos").register(meterRegistry);
+        FunctionCounter.builder("musicfly.scratch.reclaimed", bytesRecuperados, AtomicLong::get)
+                .description("Bytes liberados al cerrar directorios de trabajo o borrar huérfanos").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * Abre un directorio de trabajo para una conversión. Debe cerrarse siempre (try-with-resources).
+     *
+     * @throws ConversionBusyException si se ha superado la cuota o el disco está casi lleno.
+     */
+    public Workspace open() throws IOException {
+        ensureCapacity();
+        Path path = Files.createDirectory(directorio.resolve(PREFIJO + UUID.randomUUID()));
+        activos.add(path);
+        return new Workspace(path);
+    }
+
+    /**
+     * Comprueba la cuota y el espacio libre del disco sin reservar nada.
+     *
+     * @throws ConversionBusyException si no hay sitio para otra conversión.
+     */
+    public void ensureCapacity() {
+        long usados = medir();
+        if (usados >= maxBytes) {
+            throw new ConversionBusyException("Espacio temporal de conversiones agotado (" + usados + " bytes)", 30);
+        }
+        if (espacioLibre() < minLibres) {
+            throw new ConversionBusyException("Disco casi lleno, no se pueden lanzar conversiones", 60);
+        }
+    }
+
+    /**
+     * Conserje: borra lo que no pertenece a ninguna conversión en curso y lleva un rato sin tocarse.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${musicfly.scratch.janitor-interval-ms:300000}")
+    public void limpiarHuerfanos() {
+        long limite = System.currentTimeMillis() - edadHuerfanos;
+        long recuperados = 0;
+        int borrados = 0;
+
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(directorio)) {
+            for (Path path : entradas) {
+                if (activos.contains(path)) continue;
+                try {
+                    if (Files.getLastModifiedTime(path).toMillis() > limite) continue;
+                    long bytes = tamano(path);
+                    if (FileSystemUtils.deleteRecursively(path)) {
+                        recuperados += bytes;
+                        borrados++;
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("[SCRATCH] No se pudo borrar " + path + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[SCRATCH] No se pudo recorrer " + directorio + ": " + e.getMessage());
+        }
+
+        bytesRecuperados.addAndGet(recuperados);
+        medir();
+        if (borrados > 0) System.out.println("[SCRATCH] Borrados " + borrados + " huérfanos (" + recuperados + " bytes)");
+    }
+
+    public long getBytesUsados() {
+        return bytesUsados.get();
+    }
+
+    public long getBytesRecuperados() {
+        return bytesRecuperados.get();
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private long medir() {
+        try {
+            long bytes = tamano(directorio);
+            bytesUsados.set(bytes);
+            return bytes;
+        } catch (IOException | UncheckedIOException e) {
+            // Un directorio borrado a mitad del recorrido: nos quedamos con la última medida
+            return bytesUsados.get();
+        }
+    }
+
+    private long espacioLibre() {
+        try {
+            return Files.getFileStore(directorio).getUsableSpace();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long tamano(Path path) throws IOException {
+        if (!Files.isDirectory(path)) return Files.size(path);
+        try (Stream<Path> walk = Files.walk(path)) {
+            return walk.mapToLong(p -> {
+                try {
+                    return Files.isRegularFile(p) ? Files.size(p) : 0;
+                } catch (IOException e) {
+                    // El fichero desapareció mientras recorríamos (conversión terminada)
+                    return 0;
+                }
+            }).sum();
+        }
+    }
+
+    /**
+     * Directorio de trabajo de una conversión. Lo que siga dentro al cerrarlo (parciales, .part,
+     * fuentes intermedias) se borra; el resultado debe haberse movido antes a la caché.
+     */
+    public final class Workspace implements AutoCloseable {
+        private final Path path;
+        private boolean cerrado;
+
+        private Workspace(Path path) {
+            this.path = path;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Path resolve(String nombre) {
+            return path.resolve(nombre);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (cerrado) return;
+            cerrado = true;
+            try {
+                long bytes = tamano(path);
+                if (FileSystemUtils.deleteRecursively(path)) bytesRecuperados.addAndGet(bytes);
+            } catch (IOException e) {
+                System.err.println("[SCRATCH] No se pudo borrar " + path + ": " + e.getMessage());
+            } finally {
+                activos.remove(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+/**
+ * Índice de búsqueda por tiempo de los MP3: para cada intervalo fijo (medio segundo por defecto) guarda
+ * el byte donde empieza la trama que suena en ese instante. Se construye al generar la rendition leyendo
+ * solo las cabeceras de las tramas con jlayer (sin decodificar audio) y se guarda como fichero auxiliar,
+ * así que empezar a reproducir en "2:13" cuesta una lectura de unos pocos KB, también en MP3 VBR,
+ * donde calcular el byte a partir del bitrate cae en mitad de otra trama.
+ */
+@Service
+public class SeekIndexService {
+
+    public static final String SIDECAR = "seek";
+
+    private static final int MAGIC = 0x4D46534B; // "MFSK"
+    private static final int VERSION = 1;
+
+    private final int intervaloMs;
+
+    public SeekIndexService(@Value("${musicfly.seek.interval-ms:500}") int intervaloMs) {
+        this.intervaloMs = Math.max(10, intervaloMs);
+    }
+
+    /**
+     * Construye y guarda el índice del fichero si es un MP3. Los errores se registran y no se propagan:
+     * sin índice la canción se sigue sirviendo, solo que desde el principio.
+     */
+    public void build(Path audio) {
+        if (AudioFormat.fromFichero(audio.getFileName().toString()) != AudioFormat.MP3 || !Files.isRegularFile(audio)) return;
+        try {
+            guardar(audio, indexar(audio));
+        } catch (IOException | BitstreamException | RuntimeException e) {
+            System.err.println("[SEEK] No se pudo indexar " + audio.getFileName() + ": " + e.getMessage());
+            try {
+                // Índice vacío: evita volver a recorrer el fichero en cada petición
+                guardar(audio, new Indice(Files.size(audio), Files.getLastModifiedTime(audio).toMillis(), intervaloMs, 0, new int[0]));
+            } catch (IOException ignored) {
+                // Sin índice se vuelve a intentar en la siguiente petición
+            }
+        }
+    }
+
+    /**
+     * Byte del fichero desde el que reproducir a partir del instante indicado, o vacío si el fichero no es
+     * un MP3 indexable. Si el índice falta o es de una versión anterior del fichero se reconstruye.
+     */
+    public OptionalLong offset(Path audio, long ms) {
+        Indice indice = indice(audio);
+        if (indice == null || indice.offsets.length == 0) return OptionalLong.empty();
+        int posicion = (int) Math.min(Math.max(0, ms) / indice.intervaloMs, indice.offsets.length - 1);
+        return OptionalLong.of(indice.offsets[posicion]);
+    }
+
+    /**
+     * Duración medida recorriendo las tramas del MP3, o vacío si el fichero no es un MP3 indexable.
+     */
+    public OptionalLong duracionMs(Path audio) {
+        Indice indice = indice(audio);
+        if (indice == null || indice.duracionMs <= 0) return OptionalLong.empty();
+        return OptionalLong.of(indice.duracionMs);
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Índice vigente del fichero, reconstruido si falta o es de una versión anterior; null si no es un MP3.
+     */
+    private Indice indice(Path audio) {
+        if (AudioFormat.fromFichero(audio.getFileName().toString()) != AudioFormat.MP3) return null;
+        Indice indice = cargar(audio);
+        if (indice == null) {
+            build(audio);
+            indice = cargar(audio);
+        }
+        return indice;
+    }
+
+    private Indice indexar(Path audio) throws IOException, BitstreamException {
+        long tamano = Files.size(audio);
+        long modificado = Files.getLastModifiedTime(audio).toMillis();
+        int[] offsets = new int[256];
+        int entradas = 0;
+        double ms = 0;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(audio), 64 * 1024)) {
+            Bitstream bitstream = new Bitstream(in);
+            // Las tramas empiezan tras la etiqueta ID3v2, si la hay
+            long posicion = bitstream.header_pos();
+            Header header;
+            while ((header = bitstream.readFrame()) != null) {
+                double fin = ms + header.ms_per_frame();
+                // La trama [ms, fin) contiene los instantes k * intervalo que caen dentro
+                while ((double) entradas * intervaloMs < fin) {
+                    if (entradas == offsets.length) offsets = Arrays.copyOf(offsets, entradas * 2);
+                    offsets[entradas++] = (int) posicion;
+                }
+                posicion += header.framesize + 4L;
+                ms = fin;
+                bitstream.closeFrame();
+                if (posicion >= tamano) break;
+            }
+        }
+
+        offsets = Arrays.copyOf(offsets, entradas);
+        verificar(audio, offsets);
+        return new Indice(tamano, modificado, intervaloMs, (long) ms, offsets);
+    }
+
+    /**
+     * jlayer se resincroniza en silencio si encuentra basura entre tramas, lo que descuadraría las posiciones
+     * acumuladas. Se comprueba que cada entrada apunta de verdad a una cabecera de trama.
+     */
+    private static void verificar(Path audio, int[] offsets) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(2);
+        try (FileChannel canal = FileChannel.open(audio, StandardOpenOption.READ)) {
+            int anterior = -1;
+            for (int offset : offsets) {
+                if (offset == anterior) continue;
+                anterior = offset;
+                cabecera.clear();
+                if (canal.read(cabecera, offset) < 2 || (cabecera.get(0) & 0xFF) != 0xFF || (cabecera.get(1) & 0xE0) != 0xE0) {
+                    throw new IOException("sin trama MP3 en el byte " + offset);
+                }
+            }
+        }
+    }
+
+    private static void guardar(Path audio, Indice indice) throws IOException {
+        Path destino = AudioCacheService.sidecar(audio, SIDECAR);
+        Files.createDirectories(destino.getParent());
+        Path temporal = destino.resolveSibling("." + destino.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(indice.tamano);
+            out.writeLong(indice.modificado);
+            out.writeInt(indice.intervaloMs);
+            out.writeLong(indice.duracionMs);
+            out.writeInt(indice.offsets.length);
+            for (int offset : indice.offsets) out.writeInt(offset);
+        }
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Lee el índice guardado; null si no existe, está dañado o no corresponde al fichero actual.
+     */
+    private static Indice cargar(Path audio) {
+        Path path = AudioCacheService.sidecar(audio, SIDECAR);
+        if (!Files.exists(path)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long tamano = in.readLong();
+            long modificado = in.readLong();
+            if (tamano != Files.size(audio) || modificado != Files.getLastModifiedTime(audio).toMillis()) return null;
+            int intervalo = in.readInt();
+            long duracion = in.readLong();
+            int[] offsets = new int[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) offsets[i] = in.readInt();
+            return new Indice(tamano, modificado, intervalo, duracion, offsets);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class Indice {
+        private final long tamano;
+        private final long modificado;
+        private final int intervaloMs;
+        private final long duracionMs;
+        private final int[] offsets;
+
+        private Indice(long tamano, long modificado, int intervaloMs, long duracionMs, int[] offsets) {
+            this.tamano = tamano;
+            this.modificado = modificado;
+            this.intervaloMs = intervaloMs;
+            this.duracionMs = duracionMs;
+            this.offsets = offsets;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.models.DAO.SongFeatures;
+import es.musicfly.microserviciodecontenido.repositories.SongFeaturesRepository;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import es.musicfly.microserviciodecontenido.utils.YoutubeUrls;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Análisis por lotes del catálogo: decodifica la canción completa ya cacheada y calcula su duración real,
+ * sonoridad, tempo y energía, que quedan en {@link SongFeatures} para ordenar y recomendar.
+ * <ul>
+ *     <li>Incremental: solo se analizan las canciones sin resultado, cuyo audio ha cambiado desde el
+ *     análisis o analizadas con una versión anterior del algoritmo.</li>
+ *     <li>Reanudable: cada canción se guarda al terminar, así que una ejecución cortada sigue donde se quedó.</li>
+ *     <li>Paralelo: cada página del catálogo se reparte en un ForkJoinPool con un hilo por núcleo; cada
+ *     tarea decodifica con su propio ffmpeg, así que una pasada nocturna usa la máquina entera.</li>
+ * </ul>
+ * Las canciones sin audio en caché se saltan: el análisis no provoca conversiones y las recoge una
+ * pasada posterior.
+ */
+@Service
+public class SongFeaturesService {
+
+    // Subir cuando cambie el cálculo: todo el catálogo se vuelve a analizar en la siguiente pasada
+    public static final int VERSION = 1;
+
+    private static final int FRECUENCIA = 8000;
+    // Bloques de 10 ms: la envolvente de energía de la que sale todo lo demás
+    private static final int MUESTRAS_BLOQUE = FRECUENCIA / 100;
+    private static final int BLOQUES_POR_SEGUNDO = FRECUENCIA / MUESTRAS_BLOQUE;
+    // Ventanas de 400 ms solapadas al 75 %, como en la medida de sonoridad de EBU R128
+    private static final int BLOQUES_VENTANA = 40;
+    private static final int PASO_VENTANA = 10;
+    private static final double PUERTA_ABSOLUTA_DB = -70;
+    private static final double PUERTA_RELATIVA_DB = -10;
+    private static final double TEMPO_MIN = 60;
+    private static final double TEMPO_MAX = 200;
+    // Preferencia por tempos cercanos a 120 BPM (una octava de desviación) para no elegir el doble o la mitad
+    private static final double TEMPO_CENTRO = 120;
+    // Tolerancia antes de corregir la duración registrada de la canción (segundos)
+    private static final double TOLERANCIA_DURACION = 2;
+
+    private final SongRepository songRepository;
+    private final SongFeaturesRepository songFeaturesRepository;
+    private final YoutubeConversionService youtubeConversionService;
+    private final String ffmpegPath;
+    private final boolean enabled;
+    private final int tamanoLote;
+    private final ForkJoinPool pool;
+    // Hilo que recorre el catálogo y reparte las páginas en el pool: una pasada dura horas y no puede
+    // ocupar el planificador de Spring, compartido con el resto de tareas periódicas
+    private final ExecutorService coordinador = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "song-features");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean enEjecucion = new AtomicBoolean();
+    private final Counter analizadas;
+    private final Counter fallidas;
+
+    public SongFeaturesService(SongRepository songRepository,
+                               SongFeaturesRepository songFeaturesRepository,
+                               YoutubeConversionService youtubeConversionService,
+                               @Value("${musicfly.ffmpeg.path:ffmpeg}") String ffmpegPath,
+                               @Value("${musicfly.features.enabled:true}") boolean enabled,
+                               @Value("${musicfly.features.parallelism:0}") int paralelismo,
+                               @Value("${musicfly.features.batch-size:500}") int tamanoLote,
+                               MeterRegistry meterRegistry) {
+        this.songRepository = songRepository;
+        this.songFeaturesRepository = songFeaturesRepository;
+        this.youtubeConversionService = youtubeConversionService;
+        this.ffmpegPath = ffmpegPath;
+        this.enabled = enabled;
+        this.tamanoLote = Math.max(1, tamanoLote);
+        // 0: un hilo por núcleo disponible
+        this.pool = new ForkJoinPool(paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors());
+
+        this.analizadas = Counter.builder("musicfly.features.analyzed")
+                .description("Canciones analizadas por el pipeline de características").register(meterRegistry);
+        this.fallidas = Counter.builder("musicfly.features.failed")
+                .description("Canciones cuyo análisis falló (se reintentan en la siguiente pasada)").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinador.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    public Optional<SongFeatures> getFeatures(Long idCancion) {
+        return songFeaturesRepository.findById(idCancion);
+    }
+
+    /**
+     * Lanza la pasada nocturna en el hilo del servicio y vuelve enseguida.
+     */
+    @Scheduled(cron = "${musicfly.features.cron:0 0 3 * * *}")
+    public void runNightly() {
+        if (!enabled) return;
+        try {
+            coordinador.execute(() -> {
+                try {
+                    run();
+                } catch (RuntimeException e) {
+                    System.err.println("[FEATURES] Análisis del catálogo interrumpido: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Servicio parándose
+        }
+    }
+
+    /**
+     * Recorre el catálogo entero por páginas de ID y analiza lo pendiente. Si ya hay una pasada en
+     * marcha no hace nada.
+     *
+     * @return número de canciones analizadas.
+     */
+    public int run() {
+        if (!enEjecucion.compareAndSet(false, true)) {
+            System.out.println("[FEATURES] Ya hay un análisis del catálogo en marcha");
+            return 0;
+        }
+
+        long inicio = System.nanoTime();
+        AtomicInteger hechas = new AtomicInteger();
+        try {
+            System.out.println("[FEATURES] Análisis del catálogo con " + pool.getParallelism() + " hilos");
+            long ultimoId = 0;
+            while (!pool.isShutdown()) {
+                List<Song> pagina = songRepository.findByIdGreaterThanOrderByIdAsc(ultimoId, PageRequest.of(0, tamanoLote));
+                if (pagina.isEmpty()) break;
+                ultimoId = pagina.get(pagina.size() - 1).getId();
+
+                List<Song> pendientes = pendientes(pagina);
+                if (!pendientes.isEmpty()) pool.invoke(new Tramo(pendientes, 0, pendientes.size(), hechas));
+            }
+        } finally {
+            enEjecucion.set(false);
+        }
+        System.out.println("[FEATURES] Análisis terminado: " + hechas.get() + " canciones en "
+                + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - inicio) + " s");
+        return hechas.get();
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Audio del que salen las características: el fichero subido o el vídeo de origen.
+     */
+    private static String origen(Song song) {
+        if (song.getFuenteLocal() != null) return AudioStore.origen(song.getFuenteLocal());
+        if (song.getUrl() == null || song.getUrl().isBlank()) return null;
+        return YoutubeUrls.sourceId(song.getUrl());
+    }
+
+    private List<Song> pendientes(List<Song> pagina) {
+        Map<Long, SongFeatures> existentes = songFeaturesRepository
+                .findByIdCancionIn(pagina.stream().map(Song::getId).toList()).stream()
+                .collect(Collectors.toMap(SongFeatures::getIdCancion, Function.identity()));
+
+        List<Song> pendientes = new ArrayList<>();
+        for (Song song : pagina) {
+            String origen = origen(song);
+            if (origen == null) continue;
+            SongFeatures actual = existentes.get(song.getId());
+            if (actual != null && origen.equals(actual.getOrigen()) && Integer.valueOf(VERSION).equals(actual.getVersion())) continue;
+            pendientes.add(song);
+        }
+        return pendientes;
+    }
+
+    private void procesar(Song song, AtomicInteger hechas) {
+        if (pool.isShutdown()) return;
+        Optional<Path> audio = youtubeConversionService.findFullRendition(song);
+        if (audio.isEmpty()) return;
+
+        try {
+            SongFeatures features = analizar(audio.get());
+            features.setIdCancion(song.getId());
+            features.setOrigen(origen(song));
+            songFeaturesRepository.save(features);
+
+            Double registrada = song.getDuracion();
+            if (registrada == null || registrada <= 0 || Math.abs(registrada - features.getDuracion()) > TOLERANCIA_DURACION) {
+                songRepository.updateDuracion(song.getId(), features.getDuracion());
+            }
+            analizadas.increment();
+            hechas.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            fallidas.increment();
+            System.err.println("[FEATURES] No se pudo analizar la canción " + song.getId() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decodifica el audio a PCM mono de 8 kHz y calcula las características a partir de su envolvente
+     * de energía en bloques de 10 ms.
+     */
+    private SongFeatures analizar(Path audio) throws IOException, InterruptedException {
+        Process ffmpeg = new ProcessBuilder(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error", "-nostdin",
+                "-i", audio.toString(),
+                "-map", "0:a:0", "-ac", "1", "-ar", String.valueOf(FRECUENCIA),
+                "-f", "s16le", "-"
+        )).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        Envolvente envolvente;
+        try (InputStream pcm = new BufferedInputStream(ffmpeg.getInputStream(), 64 * 1024)) {
+            envolvente = leer(pcm);
+            if (!ffmpeg.waitFor(30, TimeUnit.SECONDS) || ffmpeg.exitValue() != 0) {
+                throw new IOException("ffmpeg no pudo decodificar " + audio.getFileName());
+            }
+        } finally {
+            if (ffmpeg.isAlive()) ffmpeg.destroyForcibly();
+        }
+        if (envolvente.n == 0) throw new IOException("el audio no tiene muestras");
+
+        double[] energia = Arrays.copyOf(envolvente.energia, envolvente.n);
+        double media = Arrays.stream(energia).sum() / energia.length;
+        return SongFeatures.builder()
+                .duracion(redondear((double) envolvente.muestras / FRECUENCIA, 10))
+                .sonoridad(sonoridad(energia))
+                .tempo(tempo(energia))
+                // RMS medio relativo al de un seno a fondo de escala (1/√2)
+                .energia(redondear(Math.min(1, Math.sqrt(media * 2)), 1000))
+                .version(VERSION)
+                .fechaAnalisis(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * Media de cuadrados (normalizada a fondo de escala) de cada bloque de PCM de 16 bits little-endian.
+     */
+    private static Envolvente leer(InputStream pcm) throws IOException {
+        Envolvente envolvente = new Envolvente();
+        byte[] bloque = new byte[MUESTRAS_BLOQUE * 2];
+        int leidos;
+        while ((leidos = pcm.readNBytes(bloque, 0, bloque.length)) >= 2) {
+            int muestras = leidos / 2;
+            double cuadrados = 0;
+            for (int i = 0; i < muestras; i++) {
+                double muestra = (short) ((bloque[2 * i + 1] << 8) | (bloque[2 * i] & 0xFF)) / 32768.0;
+                cuadrados += muestra * muestra;
+            }
+            envolvente.add(cuadrados / muestras, muestras);
+            if (leidos < bloque.length) break;
+        }
+        return envolvente;
+    }
+
+    /**
+     * Sonoridad integrada en dBFS: media de las ventanas de 400 ms que pasan la puerta absoluta (-70 dB)
+     * y la relativa (10 dB por debajo de la media de las anteriores). Sin el filtro K de EBU R128.
+     */
+    private static Double sonoridad(double[] energia) {
+        List<Double> ventanas = new ArrayList<>();
+        double suma = 0;
+        for (int i = 0; i < energia.length; i++) {
+            suma += energia[i];
+            if (i >= BLOQUES_VENTANA) suma -= energia[i - BLOQUES_VENTANA];
+            int fin = i + 1;
+            if (fin >= BLOQUES_VENTANA && (fin - BLOQUES_VENTANA) % PASO_VENTANA == 0) ventanas.add(suma / BLOQUES_VENTANA);
+        }
+        // Audio más corto que una ventana: se toma entero
+        if (ventanas.isEmpty()) ventanas.add(suma / energia.length);
+
+        double umbral = Math.pow(10, PUERTA_ABSOLUTA_DB / 10);
+        double media = ventanas.stream().filter(v -> v > umbral).mapToDouble(Double::doubleValue).average().orElse(0);
+        if (media <= 0) return null;
+        double relativo = media * Math.pow(10, PUERTA_RELATIVA_DB / 10);
+        double integrada = ventanas.stream().filter(v -> v > umbral && v > relativo).mapToDouble(Double::doubleValue).average().orElse(media);
+        return redondear(10 * Math.log10(integrada), 10);
+    }
+
+    /**
+     * Tempo por autocorrelación de la envolvente de ataques (subidas de energía en dB entre bloques,
+     * sin la tendencia del último segundo), ponderada hacia 120 BPM. Null si no hay pulso claro.
+     */
+    private static Double tempo(double[] energia) {
+        int n = energia.length;
+        double[] ataques = new double[n];
+        for (int i = 1; i < n; i++) {
+            double subida = 10 * (Math.log10(energia[i] + 1e-10) - Math.log10(energia[i - 1] + 1e-10));
+            ataques[i] = Math.max(0, subida);
+        }
+        double[] detalle = new double[n];
+        double suma = 0;
+        for (int i = 0; i < n; i++) {
+            suma += ataques[i];
+            if (i >= BLOQUES_POR_SEGUNDO) suma -= ataques[i - BLOQUES_POR_SEGUNDO];
+            detalle[i] = Math.max(0, ataques[i] - suma / Math.min(i + 1, BLOQUES_POR_SEGUNDO));
+        }
+
+        int lagMin = (int) Math.floor(60 * BLOQUES_POR_SEGUNDO / TEMPO_MAX);
+        int lagMax = (int) Math.ceil(60 * BLOQUES_POR_SEGUNDO / TEMPO_MIN);
+        if (n < 2 * lagMax) return null;
+
+        double[] correlacion = new double[lagMax + 2];
+        for (int lag = lagMin - 1; lag <= lagMax + 1; lag++) {
+            double total = 0;
+            for (int i = 0; i + lag < n; i++) total += detalle[i] * detalle[i + lag];
+            correlacion[lag] = total / (n - lag);
+        }
+
+        int mejor = -1;
+        double mejorPeso = 0;
+        for (int lag = lagMin; lag <= lagMax; lag++) {
+            double bpm = 60.0 * BLOQUES_POR_SEGUNDO / lag;
+            double octavas = Math.log(bpm / TEMPO_CENTRO) / Math.log(2);
+            double peso = correlacion[lag] * Math.exp(-0.5 * octavas * octavas);
+            if (peso > mejorPeso) {
+                mejorPeso = peso;
+                mejor = lag;
+            }
+        }
+        if (mejor < 0) return null;
+
+        // Interpolación parabólica: el pico real casi nunca cae en un bloque exacto
+        double a = correlacion[mejor - 1];
+        double b = correlacion[mejor];
+        double c = correlacion[mejor + 1];
+        double denominador = a - 2 * b + c;
+        double desplazamiento = denominador < 0 ? 0.5 * (a - c) / denominador : 0;
+        return redondear(60.0 * BLOQUES_POR_SEGUNDO / (mejor + desplazamiento), 10);
+    }
+
+    private static double redondear(double valor, int escala) {
+        return Math.round(valor * escala) / (double) escala;
+    }
+
+    /**
+     * Reparte un tramo de la página entre los hilos del pool partiéndolo por la mitad hasta llegar a
+     * canciones sueltas; los hilos libres roban las mitades pendientes de los ocupados.
+     */
+    private final class Tramo extends RecursiveAction {
+        private final List<Song> canciones;
+        private final int desde;
+        private final int hasta;
+        private final AtomicInteger hechas;
+
+        private Tramo(List<Song> canciones, int desde, int hasta, AtomicInteger hechas) {
+            this.canciones = canciones;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.hechas = hechas;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde == 1) {
+                procesar(canciones.get(desde), hechas);
+                return;
+            }
+            int mitad = (desde + hasta) >>> 1;
+            invokeAll(new Tramo(canciones, desde, mitad, hechas), new Tramo(canciones, mitad, hasta, hechas));
+        }
+    }
+
+    private static final class Envolvente {
+        private double[] energia = new double[8192];
+        private int n;
+        private long muestras;
+
+        private void add(double mediaCuadrados, int muestrasBloque) {
+            if (n == energia.length) energia = Arrays.copyOf(energia, n * 2);
+            energia[n++] = mediaCuadrados;
+            muestras += muestrasBloque;
+        }
+    }
+}
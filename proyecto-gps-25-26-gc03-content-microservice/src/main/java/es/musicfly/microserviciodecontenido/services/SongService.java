@@ -3,6 +3,7 @@ package es.musicfly.microserviciodecontenido.services;
 import es.musicfly.microserviciodecontenido.models.DAO.Album;
 import es.musicfly.microserviciodecontenido.models.DAO.Song;
 import es.musicfly.microserviciodecontenido.repositories.AlbumRepository;
+import es.musicfly.microserviciodecontenido.repositories.SongFeaturesRepository;
 import es.musicfly.microserviciodecontenido.repositories.SongRepository;
 import es.musicfly.microserviciodecontenido.views.DTO.SongDTO;
 import lombok.RequiredArgsConstructor;
@@ -20,6 +21,10 @@ public class SongService {
 
     private final SongRepository songRepository;
     private final AlbumRepository albumRepository;
+    private final CacheWarmupService cacheWarmupService;
+    private final AudioStore audioStore;
+    private final SongFeaturesRepository songFeaturesRepository;
+    private final MetadataIngestService metadataIngestService;
 
     @Operation(
             summary = "Obtener todas las canciones",
@@ -62,7 +67,11 @@ public class SongService {
             song.setAlbum(album);
         }
 
-        return songRepository.save(song);
+        Song saved = songRepository.save(song);
+        // Duración, portada y título que falten se resuelven por lotes con el resto de canciones nuevas
+        metadataIngestService.enqueue(saved);
+        cacheWarmupService.warmNewSong(saved);
+        return saved;
     }
 
     @Operation(
@@ -78,6 +87,7 @@ public class SongService {
     ) {
         Song song = songRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Song not found with id " + id));
+        String urlAnterior = song.getUrl();
 
         if (songDTO.getNombre() != null) song.setNombre(songDTO.getNombre());
         if (songDTO.getDuracion() != null) song.setDuracion(songDTO.getDuracion());
@@ -85,6 +95,12 @@ public class SongService {
         if (songDTO.getIdArtista() != null) song.setIdArtista(songDTO.getIdArtista());
         if (songDTO.getUrl() != null) song.setUrl(songDTO.getUrl());
         if (songDTO.getUrlPortada() != null) song.setUrlPortada(songDTO.getUrlPortada());
+        boolean cambiaVideo = song.getUrl() != null && !song.getUrl().equals(urlAnterior);
+        if (cambiaVideo) {
+            // Los metadatos eran del vídeo anterior: se vuelven a resolver
+            song.setDisponibilidad(null);
+            if (songDTO.getDuracion() == null) song.setDuracion(null);
+        }
 
         if (songDTO.getAlbumId() != null) {
             Album album = albumRepository.findById(songDTO.getAlbumId())
@@ -92,7 +108,11 @@ public class SongService {
             song.setAlbum(album);
         }
 
-        return songRepository.save(song);
+        Song saved = songRepository.save(song);
+        // Las renditions del vídeo anterior sobran si ya no lo usa ninguna otra canción
+        if (urlAnterior != null && !urlAnterior.equals(saved.getUrl())) audioStore.releaseSource(urlAnterior);
+        if (cambiaVideo) metadataIngestService.enqueue(saved);
+        return saved;
     }
 
     @Operation(
@@ -103,6 +123,10 @@ public class SongService {
             @Schema(description = "ID de la canción a eliminar", example = "4")
             Long id
     ) {
+        Optional<Song> song = songRepository.findById(id);
         songRepository.deleteById(id);
+        songFeaturesRepository.deleteById(id);
+        // El audio y las renditions se comparten entre canciones: solo se borran con la última referencia
+        song.ifPresent(audioStore::release);
     }
 }
@@ -0,0 +1,317 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.musicfly.microserviciodecontenido.exceptions.InvalidUploadException;
+import es.musicfly.microserviciodecontenido.exceptions.UploadOffsetException;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.repositories.SongRepository;
+import es.musicfly.microserviciodecontenido.views.DTO.UploadDTO;
+import es.musicfly.microserviciodecontenido.views.DTO.UploadRequestDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Subida reanudable del audio original de una canción, por trozos.
+ * Cada trozo se escribe en disco directamente desde el cuerpo de la petición (sin acumularlo en memoria)
+ * y el progreso es el tamaño del fichero parcial, así que una subida cortada, incluso tras un reinicio,
+ * continúa desde el último byte recibido. Al completarse se verifica la suma SHA-256 y el fichero pasa
+ * al {@link AudioStore} como fuente local de la canción, que se sirve tal cual sin conversión.
+ */
+@Service
+public class SongUploadService {
+
+    private static final String PARCIALES = ".partial";
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern ID_SUBIDA = Pattern.compile("[0-9a-f-]{36}");
+    private static final int BLOQUE = 64 * 1024;
+
+    private final SongRepository songRepository;
+    private final AudioStore audioStore;
+    private final Path parciales;
+    private final long maxBytes;
+    private final long tamanoTrozo;
+    private final long caducidad;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Subidas recibiendo un trozo ahora mismo: dos trozos a la vez de la misma subida se pisarían
+    private final Set<String> recibiendo = ConcurrentHashMap.newKeySet();
+
+    public SongUploadService(
+            SongRepository songRepository,
+            AudioStore audioStore,
+            @Value("${musicfly.uploads.max-bytes:209715200}") long maxBytes,
+            @Value("${musicfly.uploads.chunk-bytes:5242880}") long tamanoTrozo,
+            @Value("${musicfly.uploads.expire-ms:86400000}") long caducidad
+    ) throws IOException {
+        this.songRepository = songRepository;
+        this.audioStore = audioStore;
+        this.parciales = audioStore.getDirectorio().resolve(PARCIALES);
+        this.maxBytes = maxBytes;
+        this.tamanoTrozo = tamanoTrozo;
+        this.caducidad = caducidad;
+        Files.createDirectories(parciales);
+    }
+
+    /**
+     * Abre una subida para la canción. El cliente envía después los trozos en orden.
+     *
+     * @throws InvalidUploadException si el formato, el tamaño o la suma no son válidos.
+     */
+    public UploadDTO start(Song song, UploadRequestDTO peticion) throws IOException {
+        String nombre = peticion.getNombreFichero() == null ? "" : peticion.getNombreFichero().toLowerCase();
+        AudioFormat formato = AudioFormat.fromFichero(nombre);
+        if (formato == AudioFormat.HLS || !nombre.endsWith("." + formato.getExtension())) {
+            throw new InvalidUploadException("Formato no admitido, se aceptan mp3, m4a y webm", HttpStatus.BAD_REQUEST);
+        }
+        if (peticion.getTamano() == null || peticion.getTamano() <= 0) {
+            throw new InvalidUploadException("El tamaño del fichero es obligatorio", HttpStatus.BAD_REQUEST);
+        }
+        if (peticion.getTamano() > maxBytes) {
+            throw new InvalidUploadException("El fichero supera el máximo de " + maxBytes + " bytes", HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        String sha256 = peticion.getSha256() == null ? "" : peticion.getSha256().toLowerCase();
+        if (!SHA256.matcher(sha256).matches()) {
+            throw new InvalidUploadException("La suma SHA-256 debe tener 64 dígitos hexadecimales", HttpStatus.BAD_REQUEST);
+        }
+
+        Sesion sesion = new Sesion(UUID.randomUUID().toString(), song.getId(), formato.getExtension(),
+                peticion.getTamano(), sha256, System.currentTimeMillis());
+        Files.createFile(parcial(sesion.getId()));
+        objectMapper.writeValue(metadatos(sesion.getId()).toFile(), sesion);
+        System.out.println("[UPLOAD] Subida " + sesion.getId() + " abierta para la canción " + song.getId()
+                + " (" + sesion.getTamano() + " bytes)");
+        return toDTO(sesion, 0, false);
+    }
+
+    public Optional<UploadDTO> getStatus(Long idCancion, String idSubida) throws IOException {
+        Optional<Sesion> sesion = leer(idCancion, idSubida);
+        if (sesion.isEmpty()) return Optional.empty();
+        return Optional.of(toDTO(sesion.get(), Files.size(parcial(idSubida)), false));
+    }
+
+    /**
+     * Escribe un trozo que empieza en el byte indicado. Si con él se completa el fichero, lo verifica
+     * y lo asocia a la canción.
+     *
+     * @return el estado de la subida, o vacío si no existe.
+     * @throws UploadOffsetException  si el trozo no continúa donde terminó el anterior.
+     * @throws InvalidUploadException si se envían más bytes de los anunciados o el fichero final no es válido.
+     */
+    public Optional<UploadDTO> appendChunk(Long idCancion, String idSubida, long inicio, InputStream cuerpo) throws IOException {
+        Optional<Sesion> encontrada = leer(idCancion, idSubida);
+        if (encontrada.isEmpty()) return Optional.empty();
+        Sesion sesion = encontrada.get();
+        Path parcial = parcial(idSubida);
+
+        if (!recibiendo.add(idSubida)) {
+            throw new UploadOffsetException("Ya se está recibiendo otro trozo de esta subida", Files.size(parcial));
+        }
+        try {
+            long recibidos = Files.size(parcial);
+            if (inicio != recibidos) {
+                throw new UploadOffsetException("El trozo empieza en " + inicio + " y se esperaba " + recibidos, recibidos);
+            }
+
+            long escritos = escribir(parcial, inicio, sesion.getTamano() - inicio, cuerpo);
+            recibidos = inicio + escritos;
+            if (recibidos < sesion.getTamano()) return Optional.of(toDTO(sesion, recibidos, false));
+
+            completar(sesion, parcial);
+            return Optional.of(toDTO(sesion, recibidos, true));
+        } finally {
+            recibiendo.remove(idSubida);
+        }
+    }
+
+    public boolean cancel(Long idCancion, String idSubida) throws IOException {
+        if (leer(idCancion, idSubida).isEmpty()) return false;
+        borrarSesion(idSubida);
+        return true;
+    }
+
+    /**
+     * Ruta del audio subido de la canción, o null si no tiene.
+     */
+    public Path resolve(Song song) {
+        return audioStore.resolve(song.getFuenteLocal());
+    }
+
+    /**
+     * Borra las subidas abandonadas: las que llevan más del plazo sin recibir ningún trozo.
+     */
+    @Scheduled(fixedDelayString = "${musicfly.uploads.janitor-interval-ms:3600000}")
+    public void limpiarAbandonadas() {
+        long limite = System.currentTimeMillis() - caducidad;
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(parciales, "*.json")) {
+            for (Path meta : ficheros) {
+                String id = meta.getFileName().toString().replace(".json", "");
+                Path parcial = parcial(id);
+                long actividad = Files.exists(parcial) ? Files.getLastModifiedTime(parcial).toMillis()
+                        : Files.getLastModifiedTime(meta).toMillis();
+                if (actividad < limite && !recibiendo.contains(id)) {
+                    borrarSesion(id);
+                    System.out.println("[UPLOAD] Subida abandonada " + id + " eliminada");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[UPLOAD] No se pudo revisar " + parciales + ": " + e.getMessage());
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Copia el cuerpo de la petición al fichero parcial por bloques, sin leerlo entero en memoria.
+     * Si el cliente envía más de lo que falta, se descarta el trozo y se rechaza.
+     */
+    private long escribir(Path parcial, long inicio, long restantes, InputStream cuerpo) throws IOException {
+        byte[] bloque = new byte[BLOQUE];
+        long escritos = 0;
+        try (FileChannel destino = FileChannel.open(parcial, StandardOpenOption.WRITE)) {
+            while (escritos < restantes) {
+                int n = cuerpo.read(bloque, 0, (int) Math.min(BLOQUE, restantes - escritos));
+                if (n < 0) break;
+                ByteBuffer buffer = ByteBuffer.wrap(bloque, 0, n);
+                while (buffer.hasRemaining()) destino.write(buffer, inicio + escritos + buffer.position());
+                escritos += n;
+            }
+            if (escritos == restantes && cuerpo.read() != -1) {
+                destino.truncate(inicio);
+                throw new InvalidUploadException("El trozo excede el tamaño anunciado del fichero", HttpStatus.PAYLOAD_TOO_LARGE);
+            }
+        }
+        return escritos;
+    }
+
+    private void completar(Sesion sesion, Path parcial) throws IOException {
+        String suma = sha256(parcial);
+        if (!suma.equals(sesion.getSha256())) {
+            // Se empieza de cero: no sabemos qué trozo llegó mal
+            try (FileChannel canal = FileChannel.open(parcial, StandardOpenOption.WRITE)) {
+                canal.truncate(0);
+            }
+            throw new InvalidUploadException("La suma SHA-256 no coincide (recibido " + suma + "), hay que volver a subir el fichero",
+                    HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        if (!esAudio(parcial, sesion.getExtension())) {
+            borrarSesion(sesion.getId());
+            throw new InvalidUploadException("El fichero no es audio " + sesion.getExtension() + " válido",
+                    HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+
+        Song song = songRepository.findById(sesion.getIdCancion())
+                .orElseThrow(() -> new RuntimeException("Song not found with id " + sesion.getIdCancion()));
+        audioStore.attach(song, parcial, sesion.getSha256(), sesion.getExtension());
+        borrarSesion(sesion.getId());
+        System.out.println("[UPLOAD] Canción " + song.getId() + " con audio propio " + song.getFuenteLocal());
+    }
+
+    private Optional<Sesion> leer(Long idCancion, String idSubida) throws IOException {
+        if (idSubida == null || !ID_SUBIDA.matcher(idSubida).matches()) return Optional.empty();
+        Path meta = metadatos(idSubida);
+        if (!Files.exists(meta) || !Files.exists(parcial(idSubida))) return Optional.empty();
+        Sesion sesion = objectMapper.readValue(meta.toFile(), Sesion.class);
+        return sesion.getIdCancion().equals(idCancion) ? Optional.of(sesion) : Optional.empty();
+    }
+
+    private void borrarSesion(String idSubida) throws IOException {
+        Files.deleteIfExists(parcial(idSubida));
+        Files.deleteIfExists(metadatos(idSubida));
+    }
+
+    private Path parcial(String idSubida) {
+        return parciales.resolve(idSubida + ".part");
+    }
+
+    private Path metadatos(String idSubida) {
+        return parciales.resolve(idSubida + ".json");
+    }
+
+    private UploadDTO toDTO(Sesion sesion, long recibidos, boolean completada) {
+        return UploadDTO.builder()
+                .idSubida(sesion.getId())
+                .idCancion(sesion.getIdCancion())
+                .recibidos(recibidos)
+                .tamano(sesion.getTamano())
+                .tamanoTrozo(tamanoTrozo)
+                .completada(completada)
+                .url(completada ? "/songs/" + sesion.getIdCancion() + "/stream" : null)
+                .build();
+    }
+
+    private static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOQUE);
+        try (FileChannel canal = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (canal.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Comprobación de la cabecera del fichero: evita servir como audio algo que no lo es.
+     */
+    private static boolean esAudio(Path path, String extension) throws IOException {
+        byte[] cabecera = new byte[12];
+        int leidos;
+        try (InputStream in = Files.newInputStream(path)) {
+            leidos = in.readNBytes(cabecera, 0, cabecera.length);
+        }
+        if (leidos < cabecera.length) return false;
+        return switch (extension) {
+            // ID3 o directamente una trama MPEG (11 bits de sincronía)
+            case "mp3" -> (cabecera[0] == 'I' && cabecera[1] == 'D' && cabecera[2] == '3')
+                    || ((cabecera[0] & 0xFF) == 0xFF && (cabecera[1] & 0xE0) == 0xE0);
+            case "m4a" -> cabecera[4] == 'f' && cabecera[5] == 't' && cabecera[6] == 'y' && cabecera[7] == 'p';
+            case "webm" -> (cabecera[0] & 0xFF) == 0x1A && (cabecera[1] & 0xFF) == 0x45
+                    && (cabecera[2] & 0xFF) == 0xDF && (cabecera[3] & 0xFF) == 0xA3;
+            default -> false;
+        };
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Sesion {
+        private String id;
+        private Long idCancion;
+        private String extension;
+        private long tamano;
+        private String sha256;
+        private long creado;
+    }
+}
@@ -0,0 +1,269 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forma de onda de las canciones para el scrubbing del reproductor: un resumen de resolución fija con el
+ * pico y el RMS de cada tramo, calculado una sola vez al generar la rendition completa y guardado como
+ * fichero auxiliar junto a ella. Con 800 puntos ocupa unos 1,6 KB, frente a descargar y decodificar el
+ * audio entero en el navegador.
+ * <p>
+ * Formato (big-endian): {@code "MFWF"}, versión (int), duración en ms (int), número de puntos N (int),
+ * N bytes de picos y N bytes de RMS, ambos en escala lineal 0-255 sobre el fondo de escala.
+ */
+@Service
+public class WaveformService {
+
+    public static final String SIDECAR = "wave";
+
+    private static final int MAGIC = 0x4D465746; // "MFWF"
+    // Forma parte de la versión de la URL de /songs/{id}/waveform: subirla invalida lo que tengan los clientes
+    public static final int VERSION = 1;
+    // Se decodifica a mono y baja frecuencia: de sobra para una forma de onda y mucho más barato
+    private static final int FRECUENCIA = 8000;
+    // Bloques de 10 ms: el resumen final se agrega a partir de ellos cuando ya se conoce la duración
+    private static final int MUESTRAS_BLOQUE = FRECUENCIA / 100;
+
+    private final ConversionScheduler conversionScheduler;
+    private final String ffmpegPath;
+    private final int puntos;
+    private final ExecutorService ejecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "waveform");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Cálculos en marcha por audio: el de segundo plano y las peticiones en frío comparten un único ffmpeg
+    private final Map<Path, CompletableFuture<Path>> enCurso = new ConcurrentHashMap<>();
+
+    public WaveformService(ConversionScheduler conversionScheduler,
+                           @Value("${musicfly.ffmpeg.path:ffmpeg}") String ffmpegPath,
+                           @Value("${musicfly.waveform.points:800}") int puntos) {
+        this.conversionScheduler = conversionScheduler;
+        this.ffmpegPath = ffmpegPath;
+        this.puntos = Math.max(16, puntos);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ejecutor.shutdownNow();
+    }
+
+    /**
+     * Encola el cálculo de la forma de onda de una rendition completa recién generada. Se hace en segundo
+     * plano para no retrasar la respuesta que esperaba la conversión.
+     */
+    public void schedule(Path audio) {
+        if (Files.exists(AudioCacheService.sidecar(audio, SIDECAR))) return;
+        calcular(audio, ejecutor).exceptionally(e -> {
+            System.err.println("[WAVE] No se pudo calcular la forma de onda de " + audio.getFileName() + ": " + e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Fichero con la forma de onda del audio, calculándola ahora si aún no existe o es anterior al audio.
+     * Si ya se está calculando (en segundo plano o para otra petición) se espera a ese cálculo.
+     *
+     * @throws ConversionBusyException si no hay hueco para esperar o el carril interactivo está lleno.
+     */
+    public Path get(Path audio) throws IOException, InterruptedException {
+        Path path = AudioCacheService.sidecar(audio, SIDECAR);
+        if (Files.exists(path) && Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(audio)) >= 0) {
+            return path;
+        }
+        conversionScheduler.enterWaiting();
+        try {
+            // Si nadie lo está calculando, el ffmpeg va al carril interactivo del planificador: cuenta contra
+            // el mismo límite de procesos que las conversiones y con la cola llena se responde 503
+            return calcular(audio, tarea -> conversionScheduler.submit(ConversionPriority.INTERACTIVE, Executors.callable(tarea))).get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IOException io) throw io;
+            if (causa instanceof RuntimeException re) throw re;
+            throw new IOException("No se pudo calcular la forma de onda de " + audio.getFileName(), causa);
+        } finally {
+            conversionScheduler.exitWaiting();
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Une al cálculo en marcha del audio o lanza uno nuevo en el ejecutor indicado.
+     */
+    private CompletableFuture<Path> calcular(Path audio, Executor executor) {
+        CompletableFuture<Path> nuevo = new CompletableFuture<>();
+        CompletableFuture<Path> existente = enCurso.putIfAbsent(audio, nuevo);
+        if (existente != null) return existente;
+
+        Runnable tarea = () -> {
+            try {
+                build(audio);
+                nuevo.complete(AudioCacheService.sidecar(audio, SIDECAR));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                nuevo.completeExceptionally(e);
+            } catch (IOException | RuntimeException e) {
+                nuevo.completeExceptionally(e);
+            } finally {
+                enCurso.remove(audio, nuevo);
+            }
+        };
+        try {
+            executor.execute(tarea);
+        } catch (RejectedExecutionException | ConversionBusyException e) {
+            // Ejecutor parado durante el apagado o cola del planificador llena
+            enCurso.remove(audio, nuevo);
+            nuevo.completeExceptionally(e);
+        }
+        return nuevo;
+    }
+
+    private void build(Path audio) throws IOException, InterruptedException {
+        Process ffmpeg = new ProcessBuilder(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error", "-nostdin",
+                "-i", audio.toString(),
+                "-map", "0:a:0", "-ac", "1", "-ar", String.valueOf(FRECUENCIA),
+                "-f", "s16le", "-"
+        )).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        Bloques bloques;
+        try (InputStream pcm = new BufferedInputStream(ffmpeg.getInputStream(), 64 * 1024)) {
+            bloques = leer(pcm);
+            if (!ffmpeg.waitFor(30, TimeUnit.SECONDS) || ffmpeg.exitValue() != 0) {
+                throw new IOException("ffmpeg no pudo decodificar el audio");
+            }
+        } finally {
+            if (ffmpeg.isAlive()) ffmpeg.destroyForcibly();
+        }
+        if (bloques.n == 0) throw new IOException("el audio no tiene muestras");
+
+        guardar(audio, bloques);
+        System.out.println("[WAVE] Forma de onda calculada para " + audio.getFileName());
+    }
+
+    /**
+     * Pico y media de cuadrados de cada bloque de 10 ms de PCM mono de 16 bits little-endian.
+     */
+    private static Bloques leer(InputStream pcm) throws IOException {
+        Bloques bloques = new Bloques();
+        byte[] buffer = new byte[MUESTRAS_BLOQUE * 2 * 64];
+        int pico = 0;
+        double cuadrados = 0;
+        int muestras = 0;
+        int impar = -1;
+        int leidos;
+        while ((leidos = pcm.read(buffer)) > 0) {
+            int i = 0;
+            while (i < leidos) {
+                int muestra;
+                if (impar >= 0) {
+                    // Muestra partida entre dos lecturas
+                    muestra = (short) ((buffer[i] << 8) | impar);
+                    impar = -1;
+                    i++;
+                } else if (i + 1 < leidos) {
+                    muestra = (short) ((buffer[i + 1] << 8) | (buffer[i] & 0xFF));
+                    i += 2;
+                } else {
+                    impar = buffer[i] & 0xFF;
+                    i++;
+                    continue;
+                }
+
+                pico = Math.max(pico, Math.abs(muestra));
+                cuadrados += (double) muestra * muestra;
+                if (++muestras == MUESTRAS_BLOQUE) {
+                    bloques.add(pico, cuadrados / muestras);
+                    pico = 0;
+                    cuadrados = 0;
+                    muestras = 0;
+                }
+            }
+        }
+        if (muestras > 0) bloques.add(pico, cuadrados / muestras);
+        return bloques;
+    }
+
+    private void guardar(Path audio, Bloques bloques) throws IOException {
+        byte[] picos = new byte[puntos];
+        byte[] rms = new byte[puntos];
+        for (int p = 0; p < puntos; p++) {
+            // Bloques [desde, hasta) que caen en el punto; con audio muy corto un mismo bloque cubre varios puntos
+            int desde = (int) ((long) p * bloques.n / puntos);
+            int hasta = Math.max(desde + 1, (int) ((long) (p + 1) * bloques.n / puntos));
+            int pico = 0;
+            double cuadrados = 0;
+            for (int b = desde; b < hasta; b++) {
+                pico = Math.max(pico, bloques.picos[b]);
+                cuadrados += bloques.cuadrados[b];
+            }
+            picos[p] = escala(pico);
+            rms[p] = escala(Math.sqrt(cuadrados / (hasta - desde)));
+        }
+
+        Path destino = AudioCacheService.sidecar(audio, SIDECAR);
+        Files.createDirectories(destino.getParent());
+        // Nombre propio por cálculo: la petición y el cálculo en segundo plano pueden coincidir
+        Path temporal = Files.createTempFile(destino.getParent(), "." + destino.getFileName(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt((int) ((long) bloques.n * 1000 * MUESTRAS_BLOQUE / FRECUENCIA));
+            out.writeInt(puntos);
+            out.write(picos);
+            out.write(rms);
+        }
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte escala(double amplitud) {
+        return (byte) Math.min(255, Math.round(amplitud * 255 / 32768));
+    }
+
+    private static final class Bloques {
+        private int[] picos = new int[4096];
+        private double[] cuadrados = new double[4096];
+        private int n;
+
+        private void add(int pico, double mediaCuadrados) {
+            if (n == picos.length) {
+                picos = Arrays.copyOf(picos, n * 2);
+                cuadrados = Arrays.copyOf(cuadrados, n * 2);
+            }
+            picos[n] = pico;
+            cuadrados[n++] = mediaCuadrados;
+        }
+    }
+}
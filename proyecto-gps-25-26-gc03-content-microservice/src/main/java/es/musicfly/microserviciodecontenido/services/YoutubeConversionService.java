@@ -1,180 +1,783 @@
 package es.musicfly.microserviciodecontenido.services;
 
+import es.musicfly.microserviciodecontenido.exceptions.ConversionBusyException;
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import es.musicfly.microserviciodecontenido.exceptions.SourceUnavailableException;
+import es.musicfly.microserviciodecontenido.models.AudioFormat;
+import es.musicfly.microserviciodecontenido.models.AudioProfile;
+import es.musicfly.microserviciodecontenido.models.ConversionPriority;
 import es.musicfly.microserviciodecontenido.models.DAO.Song;
+import es.musicfly.microserviciodecontenido.utils.YoutubeUrls;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class YoutubeConversionService {
 
-    private static final String TEMP_DIR = System.getProperty("user.home") + "/.musicfly_temp";
-    private static final String VENV_DIR = System.getProperty("user.home") + "/.musicfly_venv";
+    public static final String HLS_MASTER = "master.m3u8";
+    private static final String WORKER = "worker:";
+    private static final Pattern PROGRESO = Pattern.compile("\\[download\\]\\s+(\\d+(?:\\.\\d+)?)%");
+
+    private final AudioCacheService audioCacheService;
+    private final InFlightConversions inFlightConversions;
+    private final ConversionScheduler conversionScheduler;
+    private final ScratchSpace scratchSpace;
+    private final YtDlpBootstrap ytDlpBootstrap;
+    private final YtDlpWorkerPool ytDlpWorkerPool;
+    private final ConversionGuard conversionGuard;
+    private final RemoteConversions remoteConversions;
+    private final SongUploadService songUploadService;
+    private final SeekIndexService seekIndexService;
+    private final WaveformService waveformService;
+    private final boolean remote;
+    private final String ffmpegPath;
+    private final boolean passthrough;
+    private final int[] hlsBitrates;
+    private final int hlsSegundos;
+    private final Map<String, Double> progreso = new ConcurrentHashMap<>();
+
+    public YoutubeConversionService(AudioCacheService audioCacheService,
+                                    InFlightConversions inFlightConversions,
+                                    ConversionScheduler conversionScheduler,
+                                    ScratchSpace scratchSpace,
+                                    YtDlpBootstrap ytDlpBootstrap,
+                                    YtDlpWorkerPool ytDlpWorkerPool,
+                                    ConversionGuard conversionGuard,
+                                    RemoteConversions remoteConversions,
+                                    SongUploadService songUploadService,
+                                    SeekIndexService seekIndexService,
+                                    WaveformService waveformService,
+                                    @Value("${musicfly.conversion.remote:false}") boolean remote,
+                                    @Value("${musicfly.ffmpeg.path:ffmpeg}") String ffmpegPath,
+                                    @Value("${musicfly.audio.passthrough:true}") boolean passthrough,
+                                    @Value("${musicfly.hls.bitrates:48,96,160}") int[] hlsBitrates,
+                                    @Value("${musicfly.hls.segment-seconds:6}") int hlsSegundos) {
+        this.audioCacheService = audioCacheService;
+        this.inFlightConversions = inFlightConversions;
+        this.conversionScheduler = conversionScheduler;
+        this.scratchSpace = scratchSpace;
+        this.ytDlpBootstrap = ytDlpBootstrap;
+        this.ytDlpWorkerPool = ytDlpWorkerPool;
+        this.conversionGuard = conversionGuard;
+        this.remoteConversions = remoteConversions;
+        this.songUploadService = songUploadService;
+        this.seekIndexService = seekIndexService;
+        this.waveformService = waveformService;
+        this.remote = remote;
+        this.ffmpegPath = ffmpegPath;
+        this.passthrough = passthrough;
+        // La variante más ligera va primero: es la que eligen los reproductores para arrancar
+        this.hlsBitrates = Arrays.stream(hlsBitrates).sorted().toArray();
+        this.hlsSegundos = hlsSegundos;
+    }
+
+    /**
+     * Devuelve la ruta de la conversión en la caché de audio, convirtiendo el vídeo solo si no estaba ya.
+     */
+    public Path getRendition(Song song, AudioProfile profile) throws IOException, InterruptedException {
+        return getRendition(song, profile, ConversionPriority.INTERACTIVE);
+    }
+
+    /**
+     * Igual que {@link #getRendition(Song, AudioProfile)} pero encolando la conversión en el carril indicado.
+     * Si el perfil pide un formato nativo que el origen no ofrece, se devuelve la versión MP3.
+     * Con audio subido no se convierte nada: la canción completa es el propio fichero subido.
+     */
+    public Path getRendition(Song song, AudioProfile profile, ConversionPriority priority) throws IOException, InterruptedException {
+        Path original = songUploadService.resolve(song);
+        if (original != null) return obtenerLocal(song, original, profile, priority);
+        if (!profile.getFormato().isPassthrough()) return obtener(song, profile, priority);
+        try {
+            return obtener(song, profile, priority);
+        } catch (ConversionBusyException | ConversionUnavailableException | SourceUnavailableException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // El origen no ofrece ese flujo nativo (p. ej. no hay m4a): se recodifica a MP3
+            System.err.println("[CONVERSION] Sin audio " + profile.getFormato() + " para " + song.getUrl() + ", se usa MP3: " + e.getMessage());
+            return obtener(song, profile.conFormato(AudioFormat.MP3), priority);
+        }
+    }
+
+    /**
+     * Perfil a servir según la cabecera Accept del cliente. Sin passthrough siempre se devuelve MP3.
+     */
+    public AudioProfile negotiate(AudioProfile profile, String accept, AudioFormat porDefecto) {
+        if (profile.getFormato() == AudioFormat.HLS) return profile;
+        if (!passthrough) return profile.conFormato(AudioFormat.MP3);
+        return profile.conFormato(AudioFormat.negotiate(accept, porDefecto));
+    }
+
+    /**
+     * Encola la conversión sin esperar a que termine (trabajos asíncronos y precarga).
+     * Devuelve null si ya estaba en caché; en otro caso un ticket que el llamante debe cerrar.
+     */
+    public InFlightConversions.Ticket requestRendition(Song song, AudioProfile profile, ConversionPriority priority) {
+        String clave = cacheKey(song, profile);
+        Path original = songUploadService.resolve(song);
+        if (original != null) {
+            if (isOriginal(song, profile) || audioCacheService.contains(clave)) return null;
+            return joinLocal(clave, original, profile, priority);
+        }
+        if (remote ? audioCacheService.refresh(clave).isPresent() : audioCacheService.contains(clave)) return null;
+
+        if (!remote) ytDlpBootstrap.ensureReady();
+        conversionGuard.check(song);
+        return join(clave, song, profile, priority);
+    }
+
+    /**
+     * Progreso (0-100) de la descarga en curso para la clave, si ya ha empezado.
+     */
+    public Optional<Double> getProgress(String clave) {
+        return Optional.ofNullable(progreso.get(clave));
+    }
+
+    /**
+     * Modo streaming: escribe el MP3 en la salida mientras yt-dlp y ffmpeg siguen convirtiendo.
+     * La conversión en streaming se registra en {@link InFlightConversions} como cualquier otra: las
+     * peticiones de la misma clave que lleguen mientras tanto (en streaming o no) se unen a ella y reciben
+     * el fichero al terminar, en lugar de lanzar otra descarga. Si ya está en caché se sirve de ahí.
+     * El resultado completo se guarda en la caché. Si el cliente se desconecta los procesos se matan,
+     * salvo que otras peticiones sigan esperando la conversión.
+     */
+    public void streamLive(Song song, AudioProfile profile, OutputStream out) throws IOException, InterruptedException {
+        String clave = cacheKey(song, profile);
+
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isEmpty() && remote) {
+            // Sin yt-dlp en este nodo: se espera a que un worker deje la rendition en el almacén
+            cached = Optional.of(getRendition(song, profile));
+        }
+        if (cached.isPresent()) {
+            Files.copy(cached.get(), out);
+            return;
+        }
+
+        ytDlpBootstrap.ensureReady();
+        conversionGuard.check(song);
+
+        AtomicBoolean lanzada = new AtomicBoolean();
+        AtomicReference<InFlightConversions.Ticket> propio = new AtomicReference<>();
+        // Si el cliente se va, se suelta su referencia: la conversión solo se cancela si no la espera nadie más
+        Runnable alDesconectar = () -> {
+            InFlightConversions.Ticket ticket = propio.get();
+            if (ticket != null) ticket.close();
+        };
+
+        conversionScheduler.enterWaiting();
+        try (InFlightConversions.Ticket ticket = inFlightConversions.join(clave, () -> {
+            lanzada.set(true);
+            return conversionScheduler.submit(ConversionPriority.INTERACTIVE,
+                    () -> pipeToClient(clave, song, profile, out, alDesconectar));
+        })) {
+            propio.set(ticket);
+            conversionScheduler.promote(ticket.getFuture(), ConversionPriority.INTERACTIVE);
+            Path resultado;
+            try {
+                resultado = await(ticket);
+            } catch (CancellationException e) {
+                // Nuestro cliente se fue y nadie más la esperaba: no queda a quién responder
+                if (lanzada.get()) return;
+                throw e;
+            }
+            // Unida a una conversión que ya estaba en marcha: se envía el fichero entero al terminar
+            if (!lanzada.get()) Files.copy(resultado, out);
+        } finally {
+            conversionScheduler.exitWaiting();
+        }
+    }
+
+    /**
+     * Comprueba antes de comprometer la respuesta que hay hueco para una conversión en streaming.
+     */
+    public void checkLiveCapacity() {
+        if (remote) return;
+        ytDlpBootstrap.ensureReady();
+        conversionScheduler.ensureCapacity(ConversionPriority.INTERACTIVE);
+        scratchSpace.ensureCapacity();
+    }
 
-    private final boolean pythonAvailable;
+    /**
+     * Nodo worker: convierte en este nodo aunque esté en modo remoto y deja el resultado en el almacén
+     * compartido. No reserva hueco de espera: quien espera es un hilo del consumidor de Kafka, no de Tomcat.
+     */
+    public Path convertLocally(Song song, AudioProfile profile, ConversionPriority priority) throws IOException, InterruptedException {
+        String clave = cacheKey(song, profile);
+        Optional<Path> cached = audioCacheService.refresh(clave);
+        if (cached.isPresent()) return cached.get();
+
+        ytDlpBootstrap.ensureReady();
+        conversionGuard.check(song);
+
+        // Clave propia en el registro: si este nodo también atiende peticiones, su vuelo remoto para la misma
+        // clave está esperando precisamente a esta conversión
+        InFlightConversions.Ticket ticket = inFlightConversions.join(WORKER + clave,
+                () -> conversionScheduler.submit(priority, () -> convertAndCache(clave, song, profile)));
+        try (ticket) {
+            return await(ticket);
+        }
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public String cacheKey(Song song, AudioProfile profile) {
+        if (song.getFuenteLocal() != null) {
+            // Audio subido: se identifica por su hash y los recortes conservan el formato del original
+            String formato = profile.getFormato() == AudioFormat.HLS ? AudioFormat.HLS.getExtension()
+                    : AudioFormat.fromFichero(song.getFuenteLocal()).getExtension();
+            return AudioStore.origen(song.getFuenteLocal()) + "_" + profile.getNombre() + "-" + formato;
+        }
+        return YoutubeUrls.sourceId(song.getUrl()) + "_" + profile.getClave();
+    }
+
+    /**
+     * true si el perfil se sirve directamente con el fichero subido, sin pasar por la caché de audio.
+     */
+    public boolean isOriginal(Song song, AudioProfile profile) {
+        return song.getFuenteLocal() != null && profile.getDuracionMaxima() == null
+                && profile.getFormato() != AudioFormat.HLS;
+    }
 
-    public YoutubeConversionService() {
-        pythonAvailable = setupPythonAndYtDlp();
+    /**
+     * Canción completa ya disponible en cualquier formato (el fichero subido o una rendition en caché),
+     * sin convertir nada. Sirve para lo que no depende del formato, como la forma de onda.
+     */
+    public Optional<Path> findFullRendition(Song song) {
+        Path original = songUploadService.resolve(song);
+        if (original != null) return Files.exists(original) ? Optional.of(original) : Optional.empty();
+        for (AudioFormat formato : AudioFormat.values()) {
+            if (formato == AudioFormat.HLS) continue;
+            Optional<Path> cached = audioCacheService.lookup(cacheKey(song, AudioProfile.FULL.conFormato(formato)));
+            if (cached.isPresent()) return cached;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Versión MP3 de la canción, la única en la que se puede empezar en un instante sin decodificar (?t=).
+     * Si el audio subido no es MP3 se recodifica una vez y la versión queda en la caché junto a los recortes.
+     */
+    public Path getSeekableRendition(Song song, AudioProfile profile, ConversionPriority priority) throws IOException, InterruptedException {
+        AudioProfile mp3 = profile.conFormato(AudioFormat.MP3);
+        Path original = songUploadService.resolve(song);
+        if (original == null || AudioFormat.fromFichero(original.getFileName().toString()) == AudioFormat.MP3) {
+            return getRendition(song, mp3, priority);
+        }
+
+        // Clave propia: las del audio subido conservan el formato del original
+        String clave = AudioStore.origen(song.getFuenteLocal()) + "_" + mp3.getClave();
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
+
+        conversionScheduler.enterWaiting();
+        try (InFlightConversions.Ticket ticket = inFlightConversions.join(clave,
+                () -> conversionScheduler.submit(priority, () -> recodificarLocal(clave, original, mp3)))) {
+            conversionScheduler.promote(ticket.getFuture(), priority);
+            return await(ticket);
+        } finally {
+            conversionScheduler.exitWaiting();
+        }
     }
 
     /**
      * Convierte un video de YouTube a MP3 y devuelve el contenido en bytes
      */
     public byte[] convertToMp3(Song song, boolean preview) throws IOException, InterruptedException {
-        if (!pythonAvailable) throw new IllegalStateException("Python o yt-dlp no están disponibles");
+        return Files.readAllBytes(getRendition(song, preview ? AudioProfile.PREVIEW : AudioProfile.FULL));
+    }
 
-        // Crear carpeta temporal
-        File tempDir = new File(TEMP_DIR);
-        if (!tempDir.exists()) tempDir.mkdirs();
+    /**
+     * Devuelve el fichero MP3 cacheado. No debe borrarse: pertenece a la caché de audio.
+     */
+    public File convertToMp3File(Song song, boolean preview) throws IOException, InterruptedException {
+        return getRendition(song, preview ? AudioProfile.PREVIEW : AudioProfile.FULL).toFile();
+    }
 
-        String outputFile = TEMP_DIR + "/song_" + System.currentTimeMillis() + ".mp3";
 
-        String ytDlpPath = getYtDlpPath();
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    /**
+     * Canción completa en un único fichero: de ella sale la forma de onda.
+     */
+    private static boolean isFull(AudioProfile profile) {
+        return profile.getDuracionMaxima() == null && profile.getFormato() != AudioFormat.HLS;
+    }
 
-        ProcessBuilder pb;
+    private Path obtener(Song song, AudioProfile profile, ConversionPriority priority) throws IOException, InterruptedException {
+        String clave = cacheKey(song, profile);
 
-        if(preview){
-            pb = new ProcessBuilder(
-                    "yt-dlp",
-                    "-x",
-                    "--audio-format", "mp3",
-                    //"--postprocessor-args", "ExtractAudio+ffmpeg:-t 30",
-                    "-o", outputFile,
-                    song.getUrl()
-            );
+        Optional<Path> cached = remote ? audioCacheService.refresh(clave) : audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
+
+        if (!remote) ytDlpBootstrap.ensureReady();
+        conversionGuard.check(song);
+
+        conversionScheduler.enterWaiting();
+        // Las peticiones concurrentes de la misma clave comparten una única conversión
+        try (InFlightConversions.Ticket ticket = join(clave, song, profile, priority)) {
+            return await(ticket);
+        } finally {
+            conversionScheduler.exitWaiting();
         }
+    }
 
-        else {
-            pb = new ProcessBuilder(
-                    ytDlpPath,
-                    "-x",
-                    "--no-clean-infojson",
-                    "--audio-format", "mp3",
-                    "--parse-metadata", "title:"+song.getNombre(),
-                    "-o", outputFile,
-                    song.getUrl()
-            );
+    /**
+     * Audio subido: la canción completa es el fichero tal cual, en su formato. El preview se recorta y el HLS
+     * se segmenta a partir de él con ffmpeg, siempre en este nodo (no hay nada que descargar) y sin pasar
+     * por el cortocircuito de yt-dlp.
+     */
+    private Path obtenerLocal(Song song, Path original, AudioProfile profile, ConversionPriority priority) throws IOException, InterruptedException {
+        if (isOriginal(song, profile)) return original;
+
+        String clave = cacheKey(song, profile);
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
+
+        conversionScheduler.enterWaiting();
+        try (InFlightConversions.Ticket ticket = joinLocal(clave, original, profile, priority)) {
+            return await(ticket);
+        } finally {
+            conversionScheduler.exitWaiting();
         }
+    }
 
-        pb.inheritIO(); // Para ver logs de yt-dlp
-        Process process = pb.start();
-        int exitCode = process.waitFor();
+    private InFlightConversions.Ticket joinLocal(String clave, Path original, AudioProfile profile, ConversionPriority priority) {
+        InFlightConversions.Ticket ticket = inFlightConversions.join(clave,
+                () -> conversionScheduler.submit(priority, () -> recortarLocal(clave, original, profile)));
+        conversionScheduler.promote(ticket.getFuture(), priority);
+        return ticket;
+    }
+
+    private Path recortarLocal(String clave, Path original, AudioProfile profile) throws IOException, InterruptedException {
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
 
-        if (exitCode != 0) {
-            throw new RuntimeException("Error al convertir video de YouTube con yt-dlp");
+        try (ScratchSpace.Workspace workspace = scratchSpace.open()) {
+            if (profile.getFormato() == AudioFormat.HLS) {
+                Path salida = Files.createDirectories(workspace.resolve("audio.hls"));
+                runProcess(hlsCommand(original, salida), pct -> { });
+                if (!Files.exists(salida.resolve(HLS_MASTER))) {
+                    throw new RuntimeException("ffmpeg no generó la playlist HLS para " + original.getFileName());
+                }
+                return audioCacheService.put(clave, salida);
+            }
+
+            // Recorte con copia de flujo: sin decodificar ni recodificar
+            Path salida = workspace.resolve("audio." + AudioFormat.fromFichero(original.getFileName().toString()).getExtension());
+            runProcess(List.of(
+                    ffmpegPath, "-hide_banner", "-loglevel", "error", "-y",
+                    "-i", original.toString(),
+                    "-map", "0:a", "-t", String.valueOf(profile.getDuracionMaxima()),
+                    "-c", "copy", salida.toString()
+            ), pct -> { });
+            if (!Files.exists(salida)) {
+                throw new RuntimeException("ffmpeg no generó el recorte de " + original.getFileName());
+            }
+            Path resultado = audioCacheService.put(clave, salida);
+            seekIndexService.build(resultado);
+            return resultado;
         }
+    }
 
-        byte[] mp3Data = Files.readAllBytes(Paths.get(outputFile));
-        Files.delete(Paths.get(outputFile));
+    private Path recodificarLocal(String clave, Path original, AudioProfile profile) throws IOException, InterruptedException {
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
+
+        try (ScratchSpace.Workspace workspace = scratchSpace.open()) {
+            Path salida = workspace.resolve("audio.mp3");
+            runProcess(List.of(
+                    ffmpegPath, "-hide_banner", "-loglevel", "error", "-y",
+                    "-i", original.toString(),
+                    "-map", "0:a:0", "-ar", "44100", "-ac", "2", "-b:a", profile.getBitrateKbps() + "k",
+                    "-f", "mp3", salida.toString()
+            ), pct -> { });
+            if (!Files.exists(salida)) {
+                throw new RuntimeException("ffmpeg no generó el MP3 de " + original.getFileName());
+            }
+            Path resultado = audioCacheService.put(clave, salida);
+            seekIndexService.build(resultado);
+            return resultado;
+        }
+    }
 
-        return mp3Data;
+    private Path await(InFlightConversions.Ticket ticket) throws IOException, InterruptedException {
+        try {
+            return ticket.await();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new RuntimeException("Error al convertir video de YouTube con yt-dlp", cause);
+        }
     }
 
-    public File convertToMp3File(Song song, boolean preview) throws IOException, InterruptedException {
-        if (!pythonAvailable) throw new IllegalStateException("Python o yt-dlp no están disponibles");
+    private InFlightConversions.Ticket join(String clave, Song song, AudioProfile profile, ConversionPriority priority) {
+        InFlightConversions.Ticket ticket = inFlightConversions.join(clave, () -> remote
+                ? remoteConversions.submit(clave, song, profile, priority)
+                : conversionScheduler.submit(priority, () -> convertAndCache(clave, song, profile)));
+        // Si nos unimos a una precarga todavía en cola, la adelantamos a nuestro carril
+        conversionScheduler.promote(ticket.getFuture(), priority);
+        return ticket;
+    }
 
-        File tempDir = new File(TEMP_DIR);
-        if (!tempDir.exists()) tempDir.mkdirs();
+    private Path convertAndCache(String clave, Song song, AudioProfile profile) throws IOException, InterruptedException {
+        // Otra petición pudo terminar la misma conversión mientras esperábamos
+        Optional<Path> cached = audioCacheService.lookup(clave);
+        if (cached.isPresent()) return cached.get();
 
-        String outputFile = TEMP_DIR + "/song_" + System.currentTimeMillis() + ".mp3";
+        // Pudo entrar en la caché negativa mientras esperaba en cola
+        conversionGuard.checkSource(song);
 
-        String ytDlpPath = getYtDlpPath();
+        progreso.put(clave, 0.0);
+        try {
+            for (int intento = 1; ; intento++) {
+                // Lo que quede en el directorio de trabajo (parciales, fuentes intermedias) se borra al cerrarlo
+                try (ScratchSpace.Workspace workspace = scratchSpace.open()) {
+                    Path resultado = audioCacheService.put(clave, convert(clave, song, profile, workspace));
+                    // Índice de búsqueda por tiempo de los MP3, mientras el fichero sigue en la caché de páginas
+                    seekIndexService.build(resultado);
+                    if (isFull(profile)) waveformService.schedule(resultado);
+                    conversionGuard.recordSuccess();
+                    return resultado;
+                } catch (ConversionBusyException | ConversionUnavailableException e) {
+                    // Sin espacio temporal o yt-dlp sin preparar: no es un fallo del origen ni del backend
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    ConversionGuard.Fallo fallo = conversionGuard.recordFailure(song, e);
+                    if (fallo == ConversionGuard.Fallo.PERMANENTE) {
+                        throw new SourceUnavailableException(e.getMessage());
+                    }
+                    long espera = conversionGuard.retryDelay(fallo, intento);
+                    if (espera < 0) throw e;
+                    System.err.println("[CONVERSION] Fallo transitorio en " + clave + " (intento " + intento
+                            + "), se reintenta en " + espera + " ms: " + e.getMessage());
+                    progreso.put(clave, 0.0);
+                    Thread.sleep(espera);
+                }
+            }
+        } finally {
+            progreso.remove(clave);
+        }
+    }
+
+    private Path convert(String clave, Song song, AudioProfile profile, ScratchSpace.Workspace workspace) throws IOException, InterruptedException {
+        if (profile.getFormato() == AudioFormat.HLS) return segment(clave, song, workspace);
+        if (profile.getFormato().isPassthrough()) return extract(clave, song, profile, workspace);
 
-        ProcessBuilder pb = new ProcessBuilder(
-                ytDlpPath,
+        String ffmpegArgs = "ExtractAudio+ffmpeg:-ar 44100 -ac 2 -b:a " + profile.getBitrateKbps() + "k";
+        if (profile.getDuracionMaxima() != null) ffmpegArgs += " -t " + profile.getDuracionMaxima();
+
+        List<String> command = new ArrayList<>(List.of(
                 "-x",
+                "-f", "bestaudio/best",
+                "--no-playlist",
+                "--newline",
                 "--audio-format", "mp3",
-                "--postprocessor-args", "-ar 44100 -ac 2 -b:a 192k",
-                "--postprocessor-args", "ExtractAudio+ffmpeg:-t 30",
-                "-o", outputFile,
-                song.getUrl()
-        );
+                "--postprocessor-args", ffmpegArgs,
+                "-o", workspace.resolve("audio.%(ext)s").toString()
+        ));
+        command.addAll(sectionArgs(profile));
+        command.add(song.getUrl());
 
-        pb.inheritIO();
-        Process process = pb.start();
-        int exitCode = process.waitFor();
+        runYtDlp(command, pct -> progreso.computeIfPresent(clave, (k, v) -> pct));
 
-        File outputFileFile = new File(outputFile);
+        Path outputFile = workspace.resolve("audio.mp3");
+        if (!Files.exists(outputFile)) {
+            throw new RuntimeException("yt-dlp no generó el fichero esperado para " + song.getUrl());
+        }
+        return outputFile;
+    }
 
-        if (exitCode != 0) {
-            throw new RuntimeException("Error al convertir video de YouTube con yt-dlp");
+    /**
+     * Passthrough: descarga solo el flujo de audio que ya sirve el origen (Opus en WebM o AAC en M4A),
+     * sin extraer ni recodificar. En los recortes yt-dlp corta con copia de flujo, tampoco recodifica.
+     */
+    private Path extract(String clave, Song song, AudioProfile profile, ScratchSpace.Workspace workspace) throws IOException, InterruptedException {
+        AudioFormat formato = profile.getFormato();
+        Path outputFile = workspace.resolve("audio." + formato.getExtension());
+
+        List<String> command = new ArrayList<>(List.of(
+                "-f", formato.getSelector(),
+                "--no-playlist",
+                "--newline",
+                "-o", outputFile.toString()
+        ));
+        command.addAll(sectionArgs(profile));
+        command.add(song.getUrl());
+
+        runYtDlp(command, pct -> progreso.computeIfPresent(clave, (k, v) -> pct));
+
+        if (!Files.exists(outputFile)) {
+            throw new RuntimeException("yt-dlp no generó el fichero esperado para " + song.getUrl());
         }
+        return outputFile;
+    }
 
-        return outputFileFile;
+    /**
+     * HLS: descarga una vez el audio original y ffmpeg genera en una sola pasada todas las variantes
+     * (AAC a cada bitrate) con sus playlists y la maestra. El directorio resultante va entero a la caché.
+     */
+    private Path segment(String clave, Song song, ScratchSpace.Workspace workspace) throws IOException, InterruptedException {
+        List<String> descarga = List.of(
+                "-f", "bestaudio/best",
+                "--no-playlist",
+                "--newline",
+                "-o", workspace.resolve("source.%(ext)s").toString(),
+                song.getUrl()
+        );
+        runYtDlp(descarga, pct -> progreso.computeIfPresent(clave, (k, v) -> pct * 0.9));
+        Path fuente = buscarFuente(workspace)
+                .orElseThrow(() -> new RuntimeException("yt-dlp no generó el fichero esperado para " + song.getUrl()));
+
+        Path salida = Files.createDirectories(workspace.resolve("audio.hls"));
+        runProcess(hlsCommand(fuente, salida), pct -> { });
+        if (!Files.exists(salida.resolve(HLS_MASTER))) {
+            throw new RuntimeException("ffmpeg no generó la playlist HLS para " + song.getUrl());
+        }
+        return salida;
     }
 
+    private List<String> hlsCommand(Path fuente, Path salida) {
+        List<String> command = new ArrayList<>(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error", "-y",
+                "-i", fuente.toString()
+        ));
+        StringBuilder mapa = new StringBuilder();
+        for (int i = 0; i < hlsBitrates.length; i++) {
+            command.addAll(List.of("-map", "0:a"));
+            mapa.append(i == 0 ? "" : " ").append("a:").append(i);
+        }
+        command.addAll(List.of("-c:a", "aac", "-ar", "44100", "-ac", "2"));
+        for (int i = 0; i < hlsBitrates.length; i++) {
+            command.addAll(List.of("-b:a:" + i, hlsBitrates[i] + "k"));
+        }
+        command.addAll(List.of(
+                "-f", "hls",
+                "-hls_time", String.valueOf(hlsSegundos),
+                "-hls_playlist_type", "vod",
+                "-hls_flags", "independent_segments",
+                "-hls_segment_filename", salida + "/v%v/seg_%03d.ts",
+                "-master_pl_name", HLS_MASTER,
+                "-var_stream_map", mapa.toString(),
+                salida + "/v%v/index.m3u8"
+        ));
+        return command;
+    }
 
-    // --------------------------
-    // Métodos privados
-    // --------------------------
+    private Optional<Path> buscarFuente(ScratchSpace.Workspace workspace) throws IOException {
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(workspace.getPath(), "source.*")) {
+            for (Path path : ficheros) {
+                if (!path.getFileName().toString().endsWith(".part")) return Optional.of(path);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Path pipeToClient(String clave, Song song, AudioProfile profile, OutputStream out, Runnable alDesconectar) throws IOException, InterruptedException {
+        ScratchSpace.Workspace workspace = scratchSpace.open();
+        Path teeFile = workspace.resolve("live.mp3");
 
-    private boolean setupPythonAndYtDlp() {
+        // yt-dlp descarga el audio original a stdout y ffmpeg lo codifica a MP3 sobre la marcha
+        List<String> ytDlpCommand = new ArrayList<>(List.of(ytDlpBootstrap.getYtDlpPath(), "-f", "bestaudio/best", "--no-playlist",
+                "--quiet", "-o", "-"));
+        ytDlpCommand.addAll(sectionArgs(profile));
+        ytDlpCommand.add(song.getUrl());
+
+        Process ytDlp = null;
+        Process ffmpeg;
         try {
-            String python = getPythonCommand();
+            ytDlp = new ProcessBuilder(ytDlpCommand)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            ffmpeg = new ProcessBuilder(ffmpegEncodeCommand(profile))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        } catch (IOException e) {
+            if (ytDlp != null) ytDlp.destroyForcibly();
+            workspace.close();
+            throw e;
+        }
+        Process descarga = ytDlp;
 
-            // Verificar Python
-            Process checkPython = new ProcessBuilder(python, "--version").start();
-            if (checkPython.waitFor() != 0) {
-                System.err.println("Python no está instalado o no es accesible");
-                return false;
+        Thread bomba = new Thread(() -> {
+            try (InputStream in = descarga.getInputStream(); OutputStream ffmpegIn = ffmpeg.getOutputStream()) {
+                in.transferTo(ffmpegIn);
+            } catch (IOException ignored) {
+                // ffmpeg se cerró antes de tiempo (cliente desconectado)
             }
-
-            // Crear entorno virtual si no existe
-            File venv = new File(VENV_DIR);
-            if (!venv.exists()) {
-                System.out.println("Creando entorno virtual en " + VENV_DIR);
-                ProcessBuilder pbVenv = new ProcessBuilder(python, "-m", "venv", VENV_DIR);
-                pbVenv.inheritIO();
-                Process p = pbVenv.start();
-                if (p.waitFor() != 0) {
-                    throw new RuntimeException("Error creando entorno virtual");
+        }, "ytdlp-pipe");
+        bomba.setDaemon(true);
+        bomba.start();
+
+        boolean completo = false;
+        Path resultado = null;
+        OutputStream cliente = out;
+        try (InputStream audio = ffmpeg.getInputStream(); OutputStream tee = Files.newOutputStream(teeFile)) {
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = audio.read(buffer)) != -1) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (cliente != null) {
+                    try {
+                        cliente.write(buffer, 0, n);
+                        cliente.flush();
+                    } catch (IOException e) {
+                        // Cliente desconectado: se sigue solo si hay otras peticiones unidas a la conversión
+                        cliente = null;
+                        alDesconectar.run();
+                    }
                 }
+                tee.write(buffer, 0, n);
             }
-
-            // Instalar yt-dlp si no existe
-            File ytDlpFile = new File(getYtDlpPath());
-            if (!ytDlpFile.exists()) {
-                System.out.println("Instalando yt-dlp en entorno virtual...");
-                String pip = getPipPath();
-                ProcessBuilder pbInstall = new ProcessBuilder(pip, "install", "--upgrade", "yt-dlp");
-                pbInstall.inheritIO();
-                Process pInstall = pbInstall.start();
-                if (pInstall.waitFor() != 0) {
-                    throw new RuntimeException("Error instalando yt-dlp");
+            // En un recorte ffmpeg corta la entrada al llegar al límite y yt-dlp puede acabar con error de tubería
+            boolean ffmpegOk = ffmpeg.waitFor() == 0;
+            completo = ffmpegOk && (profile.getDuracionMaxima() != null || ytDlp.waitFor() == 0);
+        } finally {
+            if (ytDlp.isAlive()) ytDlp.destroyForcibly();
+            if (ffmpeg.isAlive()) ffmpeg.destroyForcibly();
+            try {
+                if (completo) {
+                    resultado = audioCacheService.put(clave, teeFile);
+                    seekIndexService.build(resultado);
+                    if (isFull(profile)) waveformService.schedule(resultado);
                 }
+            } finally {
+                workspace.close();
             }
+        }
+        if (resultado == null) throw new IOException("La conversión en streaming de " + song.getUrl() + " no terminó bien");
+        return resultado;
+    }
+
+    /**
+     * Para los recortes (preview) solo se descarga la sección inicial del original, no el vídeo entero.
+     */
+    private List<String> sectionArgs(AudioProfile profile) {
+        if (profile.getDuracionMaxima() == null) return List.of();
+        return List.of("--download-sections", "*0-" + profile.getDuracionMaxima());
+    }
+
+    private List<String> ffmpegEncodeCommand(AudioProfile profile) {
+        List<String> command = new ArrayList<>(List.of(
+                ffmpegPath, "-hide_banner", "-loglevel", "error",
+                "-i", "pipe:0",
+                "-vn", "-ar", "44100", "-ac", "2", "-b:a", profile.getBitrateKbps() + "k"
+        ));
+        if (profile.getDuracionMaxima() != null) {
+            command.add("-t");
+            command.add(String.valueOf(profile.getDuracionMaxima()));
+        }
+        command.addAll(List.of("-f", "mp3", "pipe:1"));
+        return command;
+    }
 
-            return true;
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            return false;
+    /**
+     * Ejecuta yt-dlp en un worker persistente del pool si hay uno libre; si no, en un proceso propio.
+     */
+    private void runYtDlp(List<String> args, DoubleConsumer onProgress) throws IOException, InterruptedException {
+        Deque<String> ultimasLineas = new ArrayDeque<>();
+        OptionalInt exitCode = ytDlpWorkerPool.run(args, linea -> procesarLinea(linea, onProgress, ultimasLineas));
+        if (exitCode.isEmpty()) {
+            List<String> command = new ArrayList<>();
+            command.add(ytDlpBootstrap.getYtDlpPath());
+            command.addAll(args);
+            runProcess(command, onProgress);
+        } else if (exitCode.getAsInt() != 0) {
+            throw new RuntimeException("Error al convertir video de YouTube con yt-dlp" + detalle(ultimasLineas));
         }
     }
 
-    private String getPythonCommand() {
-        String os = System.getProperty("os.name").toLowerCase();
-        if (os.contains("win")) return "python";
-        else return "python3";
+    private void runProcess(List<String> command, DoubleConsumer onProgress) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+
+        // Leemos la salida en otro hilo para que waitFor() siga atendiendo a la cancelación
+        Deque<String> ultimasLineas = new ArrayDeque<>();
+        Thread lector = new Thread(() -> readOutput(process, onProgress, ultimasLineas), "ytdlp-log");
+        lector.setDaemon(true);
+        lector.start();
+
+        try {
+            int exitCode = process.waitFor();
+            lector.join(1000);
+            if (exitCode != 0) {
+                throw new RuntimeException("Error al convertir video de YouTube con yt-dlp" + detalle(ultimasLineas));
+            }
+        } finally {
+            if (process.isAlive()) process.destroyForcibly();
+        }
     }
 
-    private String getYtDlpPath() {
-        String os = System.getProperty("os.name").toLowerCase();
-        if (os.contains("win")) return VENV_DIR + "\\Scripts\\yt-dlp.exe";
-        else return VENV_DIR + "/bin/yt-dlp";
+    private void readOutput(Process process, DoubleConsumer onProgress, Deque<String> ultimasLineas) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                procesarLinea(linea, onProgress, ultimasLineas);
+            }
+        } catch (IOException ignored) {
+            // El proceso se destruyó mientras leíamos
+        }
+    }
+
+    private void procesarLinea(String linea, DoubleConsumer onProgress, Deque<String> ultimasLineas) {
+        System.out.println(linea); // Para ver logs de yt-dlp
+        Matcher m = PROGRESO.matcher(linea);
+        if (m.find()) onProgress.accept(Double.parseDouble(m.group(1)));
+        synchronized (ultimasLineas) {
+            ultimasLineas.addLast(linea);
+            if (ultimasLineas.size() > 20) ultimasLineas.removeFirst();
+        }
     }
 
-    private String getPipPath() {
-        String os = System.getProperty("os.name").toLowerCase();
-        if (os.contains("win")) return VENV_DIR + "\\Scripts\\pip.exe";
-        else return VENV_DIR + "/bin/pip";
+    /**
+     * Última línea de error de yt-dlp (la que explica el fallo) o, si no la hay, la última línea.
+     */
+    private static String detalle(Deque<String> ultimasLineas) {
+        synchronized (ultimasLineas) {
+            if (ultimasLineas.isEmpty()) return "";
+            Iterator<String> it = ultimasLineas.descendingIterator();
+            while (it.hasNext()) {
+                String linea = it.next();
+                if (linea.startsWith("ERROR")) return ": " + linea;
+            }
+            return ": " + ultimasLineas.peekLast();
+        }
     }
 }
@@ -0,0 +1,154 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import es.musicfly.microserviciodecontenido.exceptions.ConversionUnavailableException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Prepara Python y yt-dlp en segundo plano para no retrasar el arranque del contexto (ni el registro en Eureka):
+ * crear el entorno virtual y hacer pip install puede tardar decenas de segundos en un contenedor en frío.
+ * Si la imagen trae un entorno virtual ya construido o un binario de yt-dlp configurado, se usa directamente.
+ * Mientras no esté listo, las conversiones responden 503 y el resto de endpoints funciona con normalidad.
+ */
+@Service
+public class YtDlpBootstrap {
+
+    public enum Estado { STARTING, READY, FAILED }
+
+    private final String venvDir;
+    private final String ytDlpConfigurado;
+
+    private volatile Estado estado = Estado.STARTING;
+    private volatile String ytDlpPath;
+    private volatile String pythonPath;
+    private volatile String error;
+
+    public YtDlpBootstrap(@Value("${musicfly.ytdlp.venv-dir:${user.home}/.musicfly_venv}") String venvDir,
+                         @Value("${musicfly.ytdlp.path:}") String ytDlpConfigurado) {
+        this.venvDir = venvDir;
+        this.ytDlpConfigurado = ytDlpConfigurado;
+    }
+
+    @PostConstruct
+    public void start() {
+        Thread hilo = new Thread(this::preparar, "ytdlp-bootstrap");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Ruta del ejecutable de yt-dlp.
+     *
+     * @throws ConversionUnavailableException si todavía se está preparando o falló la preparación.
+     */
+    public String getYtDlpPath() {
+        ensureReady();
+        return ytDlpPath;
+    }
+
+    /**
+     * Intérprete del entorno virtual con yt_dlp instalado, para los workers persistentes.
+     * Null mientras no esté listo o si se usa un binario configurado (sin módulo de Python).
+     */
+    public String getPythonPath() {
+        return estado == Estado.READY ? pythonPath : null;
+    }
+
+    public void ensureReady() {
+        if (estado == Estado.READY) return;
+        if (estado == Estado.STARTING) {
+            throw new ConversionUnavailableException("Preparando yt-dlp, las conversiones estarán disponibles en breve", 10);
+        }
+        throw new ConversionUnavailableException("yt-dlp no está disponible: " + error, 60);
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private void preparar() {
+        long inicio = System.currentTimeMillis();
+        try {
+            ytDlpPath = resolverYtDlp();
+            estado = Estado.READY;
+            System.out.println("[YT-DLP] Listo en " + (System.currentTimeMillis() - inicio) + " ms: " + ytDlpPath);
+        } catch (IOException | RuntimeException e) {
+            error = e.getMessage();
+            estado = Estado.FAILED;
+            System.err.println("[YT-DLP] No se pudo preparar: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Preparación interrumpida";
+            estado = Estado.FAILED;
+        }
+    }
+
+    private String resolverYtDlp() throws IOException, InterruptedException {
+        // 1. Binario configurado explícitamente (p. ej. el que trae la imagen)
+        if (!ytDlpConfigurado.isBlank()) {
+            if (!new File(ytDlpConfigurado).canExecute()) {
+                throw new IllegalStateException("musicfly.ytdlp.path no es ejecutable: " + ytDlpConfigurado);
+            }
+            return ytDlpConfigurado;
+        }
+
+        // 2. Entorno virtual ya construido
+        String ytDlp = getVenvYtDlpPath();
+        if (new File(ytDlp).canExecute()) {
+            pythonPath = getVenvPythonPath();
+            return ytDlp;
+        }
+
+        // 3. Crearlo desde cero
+        String python = getPythonCommand();
+        Process checkPython = new ProcessBuilder(python, "--version").start();
+        if (checkPython.waitFor() != 0) {
+            throw new IllegalStateException("Python no está instalado o no es accesible");
+        }
+
+        File venv = new File(venvDir);
+        if (!venv.exists()) {
+            System.out.println("Creando entorno virtual en " + venvDir);
+            Process p = new ProcessBuilder(python, "-m", "venv", venvDir).inheritIO().start();
+            if (p.waitFor() != 0) throw new IllegalStateException("Error creando entorno virtual");
+        }
+
+        System.out.println("Instalando yt-dlp en entorno virtual...");
+        Process pInstall = new ProcessBuilder(getPipPath(), "install", "--upgrade", "yt-dlp").inheritIO().start();
+        if (pInstall.waitFor() != 0) throw new IllegalStateException("Error instalando yt-dlp");
+        pythonPath = getVenvPythonPath();
+        return ytDlp;
+    }
+
+    private boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("win");
+    }
+
+    private String getPythonCommand() {
+        return isWindows() ? "python" : "python3";
+    }
+
+    private String getVenvYtDlpPath() {
+        return isWindows() ? venvDir + "\\Scripts\\yt-dlp.exe" : venvDir + "/bin/yt-dlp";
+    }
+
+    private String getVenvPythonPath() {
+        return isWindows() ? venvDir + "\\Scripts\\python.exe" : venvDir + "/bin/python";
+    }
+
+    private String getPipPath() {
+        return isWindows() ? venvDir + "\\Scripts\\pip.exe" : venvDir + "/bin/pip";
+    }
+}
@@ -0,0 +1,368 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pool de procesos de yt-dlp de larga duración (ytdlp_worker.py en el entorno virtual).
+ * Cada worker importa yt_dlp una sola vez y atiende trabajos por stdin/stdout, así las conversiones
+ * no pagan el arranque del intérprete ni la importación del módulo. Los workers se comprueban
+ * periódicamente con un ping y se reciclan tras un número de trabajos para acotar la memoria.
+ * Si el pool está desactivado o todos los workers están ocupados, la conversión lanza un proceso suelto.
+ */
+@Service
+public class YtDlpWorkerPool {
+
+    private static final String MARCA = "@@MUSICFLY ";
+    private static final long ARRANQUE_TIMEOUT_MS = 60_000;
+    private static final long PING_TIMEOUT_MS = 5_000;
+
+    private final YtDlpBootstrap ytDlpBootstrap;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int maxTrabajos;
+    private final Slot[] slots;
+    private final BlockingQueue<Slot> libres = new LinkedBlockingQueue<>();
+    private final AtomicLong sueltos = new AtomicLong();
+    private final ExecutorService arranques;
+
+    private volatile Path script;
+
+    public YtDlpWorkerPool(YtDlpBootstrap ytDlpBootstrap,
+                           @Value("${musicfly.ytdlp.workers:2}") int workers,
+                           @Value("${musicfly.ytdlp.worker-max-jobs:50}") int maxTrabajos,
+                           MeterRegistry meterRegistry) {
+        this.ytDlpBootstrap = ytDlpBootstrap;
+        this.maxTrabajos = Math.max(1, maxTrabajos);
+        this.slots = new Slot[Math.max(0, workers)];
+        this.arranques = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ytdlp-workers");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = new Slot(i);
+            slots[i] = slot;
+            String worker = String.valueOf(i);
+            Gauge.builder("musicfly.ytdlp.worker.utilization", slot, s -> s.utilizacion)
+                    .description("Fracción del último intervalo que el worker ha pasado trabajando")
+                    .tag("worker", worker).register(meterRegistry);
+            FunctionCounter.builder("musicfly.ytdlp.worker.jobs", slot.trabajos, AtomicLong::get)
+                    .description("Trabajos atendidos por el worker").tag("worker", worker).register(meterRegistry);
+            FunctionCounter.builder("musicfly.ytdlp.worker.restarts", slot.arrancados, AtomicLong::get)
+                    .description("Procesos arrancados en el hueco del worker").tag("worker", worker).register(meterRegistry);
+        }
+        Gauge.builder("musicfly.ytdlp.workers.idle", libres, BlockingQueue::size)
+                .description("Workers de yt-dlp libres").register(meterRegistry);
+        FunctionCounter.builder("musicfly.ytdlp.workers.fallbacks", sueltos, AtomicLong::get)
+                .description("Trabajos que lanzaron un proceso suelto por no haber worker libre").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        arranques.shutdownNow();
+        for (Slot slot : slots) slot.matar();
+    }
+
+    public boolean isEnabled() {
+        return slots.length > 0 && ytDlpBootstrap.getPythonPath() != null;
+    }
+
+    /**
+     * Ejecuta yt-dlp con los argumentos indicados en un worker libre, entregando cada línea de su salida.
+     *
+     * @return el código de salida de yt-dlp, o vacío si no hay ningún worker listo (el llamante lanza un proceso).
+     * @throws InterruptedException si se cancela la conversión; el worker se mata para abortar la descarga.
+     */
+    public OptionalInt run(List<String> args, Consumer<String> onLine) throws InterruptedException {
+        if (!isEnabled()) return OptionalInt.empty();
+
+        Slot slot;
+        while ((slot = libres.poll()) != null && !slot.isVivo()) {
+            arrancar(slot);
+        }
+        if (slot == null) {
+            // Aprovechamos para levantar los huecos vacíos sin esperar a la siguiente comprobación
+            for (Slot vacio : slots) {
+                if (!vacio.ocupado && !vacio.isVivo()) arrancar(vacio);
+            }
+            sueltos.incrementAndGet();
+            return OptionalInt.empty();
+        }
+
+        boolean sano = false;
+        try {
+            int codigo = slot.ejecutar(args, onLine);
+            sano = codigo >= 0;
+            return OptionalInt.of(sano ? codigo : 1);
+        } catch (IOException e) {
+            onLine.accept("ERROR: worker de yt-dlp no disponible: " + e.getMessage());
+            return OptionalInt.of(1);
+        } finally {
+            devolver(slot, sano);
+        }
+    }
+
+    /**
+     * Arranca los workers que falten, hace ping a los libres y recalcula la utilización.
+     */
+    @Scheduled(initialDelay = 5000, fixedDelayString = "${musicfly.ytdlp.worker-check-interval-ms:30000}")
+    public void comprobarWorkers() {
+        for (Slot slot : slots) slot.muestrearUtilizacion();
+        if (!isEnabled()) return;
+
+        for (Slot slot : slots) {
+            if (!libres.remove(slot)) {
+                // Ocupado o arrancando; si no hay proceso ni arranque en curso, se lanza
+                if (!slot.ocupado && !slot.isVivo()) arrancar(slot);
+                continue;
+            }
+            try {
+                if (slot.ping()) {
+                    libres.offer(slot);
+                    continue;
+                }
+                System.err.println("[YT-DLP] Worker " + slot.indice + " no responde al ping, se reinicia");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                libres.offer(slot);
+                return;
+            }
+            slot.matar();
+            arrancar(slot);
+        }
+    }
+
+    // --------------------------
+    // Métodos privados
+    // --------------------------
+
+    private void devolver(Slot slot, boolean sano) {
+        if (!sano || !slot.isVivo()) {
+            slot.matar();
+            arrancar(slot);
+        } else if (slot.trabajosProceso >= maxTrabajos) {
+            System.out.println("[YT-DLP] Worker " + slot.indice + " reciclado tras " + slot.trabajosProceso + " trabajos");
+            slot.matar();
+            arrancar(slot);
+        } else {
+            libres.offer(slot);
+        }
+    }
+
+    private void arrancar(Slot slot) {
+        if (!slot.arrancando.compareAndSet(false, true)) return;
+        try {
+            arranques.execute(() -> {
+                try {
+                    slot.arrancar(ytDlpBootstrap.getPythonPath(), script());
+                    libres.offer(slot);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("[YT-DLP] No se pudo arrancar el worker " + slot.indice + ": " + e.getMessage());
+                    slot.matar();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    slot.matar();
+                } finally {
+                    slot.arrancando.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Executor parado durante el apagado
+            slot.arrancando.set(false);
+        }
+    }
+
+    /**
+     * El script viaja en el jar; se copia a un fichero temporal fuera del espacio de conversiones
+     * (el conserje lo borraría) la primera vez que hace falta.
+     */
+    private Path script() throws IOException {
+        Path actual = script;
+        if (actual != null && Files.exists(actual)) return actual;
+        Path destino = Files.createTempFile("musicfly_ytdlp_worker", ".py");
+        try (InputStream in = new ClassPathResource("ytdlp_worker.py").getInputStream()) {
+            Files.copy(in, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+        destino.toFile().deleteOnExit();
+        script = destino;
+        return destino;
+    }
+
+    private JsonNode parsear(String linea) {
+        try {
+            return objectMapper.readTree(linea.substring(MARCA.length()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hueco fijo del pool: conserva las métricas aunque el proceso que lo ocupa se recicle.
+     */
+    private final class Slot {
+        private final int indice;
+        private final AtomicLong trabajos = new AtomicLong();
+        private final AtomicLong arrancados = new AtomicLong();
+        private final AtomicLong nanosOcupado = new AtomicLong();
+        private final AtomicBoolean arrancando = new AtomicBoolean();
+
+        private volatile Proceso proceso;
+        private volatile boolean ocupado;
+        private volatile long inicioOcupado;
+        private volatile double utilizacion;
+        private int trabajosProceso;
+        private long ultimaMuestra = System.nanoTime();
+        private long ultimoOcupado;
+
+        private Slot(int indice) {
+            this.indice = indice;
+        }
+
+        private boolean isVivo() {
+            Proceso p = proceso;
+            return p != null && p.process.isAlive();
+        }
+
+        private void arrancar(String python, Path script) throws IOException, InterruptedException {
+            ProcessBuilder pb = new ProcessBuilder(python, "-u", script.toString());
+            pb.redirectErrorStream(true);
+            Proceso p = new Proceso(pb.start(), indice);
+            JsonNode listo = p.respuestas.poll(ARRANQUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (listo == null || !"ready".equals(listo.path("status").asText())) {
+                p.process.destroyForcibly();
+                throw new IllegalStateException("el worker no respondió al arrancar");
+            }
+            proceso = p;
+            trabajosProceso = 0;
+            arrancados.incrementAndGet();
+            System.out.println("[YT-DLP] Worker " + indice + " listo (yt-dlp " + listo.path("version").asText("?") + ")");
+        }
+
+        /**
+         * Devuelve el código de salida de yt-dlp, o -1 si el worker murió durante el trabajo.
+         */
+        private int ejecutar(List<String> args, Consumer<String> onLine) throws IOException, InterruptedException {
+            Proceso p = proceso;
+            ocupado = true;
+            inicioOcupado = System.nanoTime();
+            p.salida = onLine;
+            try {
+                p.enviar(Map.of("args", args));
+                JsonNode respuesta = p.respuestas.take();
+                trabajosProceso++;
+                trabajos.incrementAndGet();
+                if (!"done".equals(respuesta.path("status").asText())) return -1;
+                return respuesta.path("code").asInt(1);
+            } finally {
+                p.salida = null;
+                nanosOcupado.addAndGet(System.nanoTime() - inicioOcupado);
+                ocupado = false;
+            }
+        }
+
+        private boolean ping() throws InterruptedException {
+            Proceso p = proceso;
+            if (p == null || !p.process.isAlive()) return false;
+            try {
+                p.enviar(Map.of("cmd", "ping"));
+            } catch (IOException e) {
+                return false;
+            }
+            JsonNode respuesta = p.respuestas.poll(PING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return respuesta != null && "pong".equals(respuesta.path("status").asText());
+        }
+
+        private void matar() {
+            Proceso p = proceso;
+            proceso = null;
+            if (p != null) p.process.destroyForcibly();
+        }
+
+        private synchronized void muestrearUtilizacion() {
+            long ahora = System.nanoTime();
+            long total = nanosOcupado.get() + (ocupado ? ahora - inicioOcupado : 0);
+            long intervalo = ahora - ultimaMuestra;
+            if (intervalo > 0) utilizacion = Math.min(1.0, Math.max(0.0, (total - ultimoOcupado) / (double) intervalo));
+            ultimaMuestra = ahora;
+            ultimoOcupado = total;
+        }
+    }
+
+    /**
+     * Un proceso de Python concreto con su hilo lector. Las líneas con la marca del protocolo van a la
+     * cola de respuestas; el resto es salida de yt-dlp y se entrega al trabajo en curso.
+     */
+    private final class Proceso {
+        private final Process process;
+        private final BufferedWriter entrada;
+        private final BlockingQueue<JsonNode> respuestas = new LinkedBlockingQueue<>();
+        private volatile Consumer<String> salida;
+
+        private Proceso(Process process, int indice) {
+            this.process = process;
+            this.entrada = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            Thread lector = new Thread(this::leer, "ytdlp-worker-" + indice);
+            lector.setDaemon(true);
+            lector.start();
+        }
+
+        private synchronized void enviar(Object peticion) throws IOException {
+            entrada.write(objectMapper.writeValueAsString(peticion));
+            entrada.newLine();
+            entrada.flush();
+        }
+
+        private void leer() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String linea;
+                while ((linea = reader.readLine()) != null) {
+                    JsonNode respuesta = linea.startsWith(MARCA) ? parsear(linea) : null;
+                    if (respuesta != null) {
+                        respuestas.offer(respuesta);
+                        continue;
+                    }
+                    Consumer<String> destino = salida;
+                    if (destino != null) destino.accept(linea);
+                    else System.out.println(linea);
+                }
+            } catch (IOException ignored) {
+                // El proceso se destruyó mientras leíamos
+            } finally {
+                // Despierta a quien espere una respuesta de un proceso que ya no existe
+                respuestas.offer(JsonNodeFactory.instance.objectNode().put("status", "exit"));
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package es.musicfly.microserviciodecontenido.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utilidades para identificar el origen de una canción a partir de su URL.
+ */
+public final class YoutubeUrls {
+
+    // watch?v=ID, youtu.be/ID, shorts/ID, embed/ID, music.youtube.com/watch?v=ID
+    private static final Pattern VIDEO_ID = Pattern.compile(
+            "(?:[?&]v=|youtu\\.be/|/shorts/|/embed/|/live/)([A-Za-z0-9_-]{11})");
+
+    private YoutubeUrls() {
+    }
+
+    /**
+     * Devuelve el identificador del vídeo de YouTube o null si la URL no lo contiene.
+     */
+    public static String videoId(String url) {
+        if (url == null) return null;
+        Matcher m = VIDEO_ID.matcher(url);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * Identificador estable del origen: el ID del vídeo si es de YouTube o un hash de la URL en otro caso.
+     */
+    public static String sourceId(String url) {
+        String id = videoId(url);
+        if (id != null) return "yt_" + id;
+        return "url_" + sha256(url == null ? "" : url.trim()).substring(0, 16);
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
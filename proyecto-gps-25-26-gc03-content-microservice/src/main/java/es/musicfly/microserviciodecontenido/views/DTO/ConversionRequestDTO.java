@@ -0,0 +1,34 @@
+package es.musicfly.microserviciodecontenido.views.DTO;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Petición de conversión publicada en conversiones.v1 para los nodos worker.
+ * Lleva todo lo necesario para convertir sin consultar la base de datos.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversionRequestDTO implements Serializable {
+    @JsonProperty("clave")
+    private String clave;
+    @JsonProperty("id_cancion")
+    private Long idCancion;
+    @JsonProperty("url")
+    private String url;
+    @JsonProperty("perfil")
+    private String perfil;
+    @JsonProperty("formato")
+    private String formato;
+    @JsonProperty("prioridad")
+    private String prioridad;
+    @JsonProperty("fecha_solicitud")
+    private String fechaSolicitud;
+}
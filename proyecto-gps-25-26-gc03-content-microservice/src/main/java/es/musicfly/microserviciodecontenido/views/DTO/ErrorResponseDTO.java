@@ -0,0 +1,17 @@
+package es.musicfly.microserviciodecontenido.views.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErrorResponseDTO {
+    String error;
+    String message;
+    int statusCode;
+    String timestamp;
+}
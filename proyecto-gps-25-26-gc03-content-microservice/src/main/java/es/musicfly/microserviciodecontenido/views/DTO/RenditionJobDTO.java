@@ -0,0 +1,39 @@
+package es.musicfly.microserviciodecontenido.views.DTO;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Estado de un trabajo asíncrono de conversión de una canción")
+public class RenditionJobDTO {
+
+    @Schema(description = "Identificador del trabajo", example = "3f2a9c0e-5b7d-4c1e-9a63-0d2b8e7f1a44")
+    private String idTrabajo;
+
+    @Schema(description = "ID de la canción", example = "10")
+    private Long idCancion;
+
+    @Schema(description = "Perfil de salida", example = "full")
+    private String perfil;
+
+    @Schema(description = "Estado: QUEUED, RUNNING, DONE o FAILED", example = "RUNNING")
+    private String estado;
+
+    @Schema(description = "Progreso de la descarga (0-100)", example = "42.5")
+    private Double progreso;
+
+    @Schema(description = "URL desde la que reproducir el resultado cuando el estado es DONE", example = "/songs/10/stream")
+    private String url;
+
+    @Schema(description = "Motivo del fallo cuando el estado es FAILED")
+    private String error;
+
+    @Schema(description = "Fecha de creación del trabajo", example = "2025-11-20T18:30:00")
+    private String fechaCreacion;
+}
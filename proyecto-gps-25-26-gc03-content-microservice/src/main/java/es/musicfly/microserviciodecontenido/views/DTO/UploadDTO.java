@@ -0,0 +1,36 @@
+package es.musicfly.microserviciodecontenido.views.DTO;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Estado de una subida reanudable del audio de una canción")
+public class UploadDTO {
+
+    @Schema(description = "Identificador de la subida", example = "3f2a9c0e-5b7d-4c1e-9a63-0d2b8e7f1a44")
+    private String idSubida;
+
+    @Schema(description = "ID de la canción", example = "10")
+    private Long idCancion;
+
+    @Schema(description = "Bytes recibidos: el siguiente trozo debe empezar aquí", example = "5242880")
+    private Long recibidos;
+
+    @Schema(description = "Tamaño total del fichero en bytes", example = "7340032")
+    private Long tamano;
+
+    @Schema(description = "Tamaño de trozo recomendado en bytes", example = "5242880")
+    private Long tamanoTrozo;
+
+    @Schema(description = "true cuando el fichero está completo, verificado y asociado a la canción", example = "false")
+    private Boolean completada;
+
+    @Schema(description = "URL desde la que reproducir la canción cuando la subida está completa", example = "/songs/10/stream")
+    private String url;
+}
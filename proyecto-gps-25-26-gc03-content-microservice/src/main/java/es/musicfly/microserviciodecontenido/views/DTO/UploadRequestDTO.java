@@ -0,0 +1,25 @@
+package es.musicfly.microserviciodecontenido.views.DTO;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Datos para iniciar la subida del audio de una canción")
+public class UploadRequestDTO {
+
+    @Schema(description = "Nombre del fichero original; su extensión indica el formato (mp3, m4a o webm)", example = "tema.m4a")
+    private String nombreFichero;
+
+    @Schema(description = "Tamaño total del fichero en bytes", example = "7340032")
+    private Long tamano;
+
+    @Schema(description = "Suma SHA-256 del fichero completo en hexadecimal",
+            example = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")
+    private String sha256;
+}
@@ -0,0 +1,62 @@
+"""
+Worker persistente de yt-dlp para el microservicio de contenido de MusicFly.
+
+Carga el modulo yt_dlp una sola vez y atiende trabajos por stdin, uno por linea en JSON:
+    {"args": ["-f", "bestaudio", "-o", "...", "https://..."]}   -> ejecuta yt-dlp con esos argumentos
+    {"cmd": "ping"}                                             -> comprobacion de salud
+
+La salida normal de yt-dlp (progreso, avisos) sale por stdout/stderr como siempre. Las respuestas del
+protocolo van en una linea propia que empieza por la marca "@@MUSICFLY " seguida de un JSON:
+    {"status": "ready", "version": "..."}   al arrancar
+    {"status": "pong"}                      tras un ping
+    {"status": "done", "code": 0}           al terminar un trabajo (code != 0 si fallo)
+"""
+import json
+import sys
+import traceback
+
+import yt_dlp
+
+MARCA = "@@MUSICFLY "
+
+
+def responder(datos):
+    sys.stderr.flush()
+    sys.stdout.write(MARCA + json.dumps(datos) + "\n")
+    sys.stdout.flush()
+
+
+def ejecutar(args):
+    try:
+        opciones = yt_dlp.parse_options(args)
+    except SystemExit as e:
+        return e.code if isinstance(e.code, int) else 2
+    with yt_dlp.YoutubeDL(opciones.ydl_opts) as ydl:
+        return ydl.download(opciones.urls)
+
+
+def main():
+    responder({"status": "ready", "version": yt_dlp.version.__version__})
+    for linea in sys.stdin:
+        linea = linea.strip()
+        if not linea:
+            continue
+        peticion = json.loads(linea)
+        if peticion.get("cmd") == "ping":
+            responder({"status": "pong"})
+            continue
+        try:
+            codigo = ejecutar(peticion["args"])
+        except yt_dlp.utils.DownloadError as e:
+            print("ERROR: " + str(e), flush=True)
+            codigo = 1
+        except SystemExit as e:
+            codigo = e.code if isinstance(e.code, int) else 1
+        except Exception:
+            traceback.print_exc(file=sys.stdout)
+            codigo = 1
+        responder({"status": "done", "code": codigo or 0})
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,66 @@
+package es.musicfly.microserviciodecontenido.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AudioFileSenderTest {
+
+    private static final long LONGITUD = 1000;
+
+    @Test
+    void rangoCerrado() {
+        List<long[]> rangos = AudioFileSender.parsearRangos("bytes=0-99", LONGITUD);
+        assertEquals(1, rangos.size());
+        assertArrayEquals(new long[]{0, 99}, rangos.get(0));
+    }
+
+    @Test
+    void rangoSufijo() {
+        assertArrayEquals(new long[]{900, 999}, AudioFileSender.parsearRangos("bytes=-100", LONGITUD).get(0));
+        // Un sufijo mayor que el fichero es el fichero entero
+        assertArrayEquals(new long[]{0, 999}, AudioFileSender.parsearRangos("bytes=-5000", LONGITUD).get(0));
+        // Sufijo vacío: no es satisfacible
+        assertNull(AudioFileSender.parsearRangos("bytes=-0", LONGITUD));
+    }
+
+    @Test
+    void rangoAbierto() {
+        assertArrayEquals(new long[]{500, 999}, AudioFileSender.parsearRangos("bytes=500-", LONGITUD).get(0));
+    }
+
+    @Test
+    void variosRangos() {
+        List<long[]> rangos = AudioFileSender.parsearRangos("bytes=0-99, 200-299,-50", LONGITUD);
+        assertEquals(3, rangos.size());
+        assertArrayEquals(new long[]{0, 99}, rangos.get(0));
+        assertArrayEquals(new long[]{200, 299}, rangos.get(1));
+        assertArrayEquals(new long[]{950, 999}, rangos.get(2));
+    }
+
+    @Test
+    void rangoFueraDelFichero() {
+        // Empieza después del final: 416
+        assertNull(AudioFileSender.parsearRangos("bytes=1000-1100", LONGITUD));
+        // El final se recorta al tamaño del fichero
+        assertArrayEquals(new long[]{900, 999}, AudioFileSender.parsearRangos("bytes=900-5000", LONGITUD).get(0));
+        // Solo se descartan los rangos no satisfacibles
+        List<long[]> rangos = AudioFileSender.parsearRangos("bytes=2000-3000,0-9", LONGITUD);
+        assertEquals(1, rangos.size());
+        assertArrayEquals(new long[]{0, 9}, rangos.get(0));
+    }
+
+    @Test
+    void cabeceraMalFormadaSeIgnora() {
+        assertTrue(AudioFileSender.parsearRangos("bytes=abc", LONGITUD).isEmpty());
+        assertTrue(AudioFileSender.parsearRangos("bytes=5-1", LONGITUD).isEmpty());
+        assertTrue(AudioFileSender.parsearRangos("bytes=1-x", LONGITUD).isEmpty());
+        assertEquals(1, AudioFileSender.parsearRangos("bytes=0-9,", LONGITUD).size());
+        assertTrue(AudioFileSender.parsearRangos("items=0-99", LONGITUD).isEmpty());
+    }
+}
@@ -14,6 +14,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
 import java.util.DoubleSummaryStatistics;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -107,4 +108,54 @@ public class EstadisticasController {
                 .count();
         return ResponseEntity.ok(count);
     }
+
+    // -----------------------------------------------
+    // 5. Canciones más visualizadas
+    // -----------------------------------------------
+    @GetMapping("/visualizaciones/top")
+    @Operation(
+            summary = "Obtener las canciones más visualizadas",
+            description = "Devuelve los IDs de las canciones con más visualizaciones, de mayor a menor."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Ranking obtenido correctamente")
+    })
+    public ResponseEntity<List<Long>> topVisualizaciones(
+            @Parameter(description = "Número máximo de canciones a devolver", example = "20")
+            @RequestParam(defaultValue = "20") int limite
+    ) {
+        Map<Long, Long> conteo = EstadisticasListener.DB_VISUALIZACIONES.values().stream()
+                .filter(v -> v.getIdContenido() != null)
+                .collect(Collectors.groupingBy(VisualizacionDTO::getIdContenido, Collectors.counting()));
+        return ResponseEntity.ok(ranking(conteo, limite));
+    }
+
+    // -----------------------------------------------
+    // 6. Canciones más añadidas a favoritos
+    // -----------------------------------------------
+    @GetMapping("/favoritos/top")
+    @Operation(
+            summary = "Obtener las canciones con más favoritos",
+            description = "Devuelve los IDs de las canciones guardadas como favoritas más veces, de mayor a menor."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Ranking obtenido correctamente")
+    })
+    public ResponseEntity<List<Long>> topFavoritos(
+            @Parameter(description = "Número máximo de canciones a devolver", example = "20")
+            @RequestParam(defaultValue = "20") int limite
+    ) {
+        Map<Long, Long> conteo = EstadisticasListener.DB_FAVORITOS.values().stream()
+                .filter(f -> f.getIdContenido() != null)
+                .collect(Collectors.groupingBy(FavoritosDTO::getIdContenido, Collectors.counting()));
+        return ResponseEntity.ok(ranking(conteo, limite));
+    }
+
+    private static List<Long> ranking(Map<Long, Long> conteo, int limite) {
+        return conteo.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed())
+                .limit(Math.max(0, limite))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
 }